@@ -0,0 +1,107 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// The Vector API count kernel behind DecisionTree's --gain-kernel=vector. It is kept out of the main file
+// because jdk.incubator.vector has to be added explicitly; build and run it with
+//   javac --add-modules jdk.incubator.vector DecisionTree.java DecisionTreeVectorKernel.java
+//   java --add-modules jdk.incubator.vector DecisionTree --gain-kernel=vector
+// DecisionTree looks this class up by name and uses its scalar kernel when it cannot be loaded
+class DecisionTreeVectorKernel implements DecisionTree.CountKernel {
+    static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+    static final VectorSpecies<Integer> ROWS = IntVector.SPECIES_PREFERRED;
+    static final IntVector STEPS = IntVector.zero(ROWS).addIndex(1);   // 0, 1, 2, ...
+    // Every key costs one compare and one mask popcount per vector, so with more keys than this the
+    // scalar increments are faster
+    static final int MAX_KEYS = 32;
+    static final ThreadLocal<byte[]> GATHERED = ThreadLocal.withInitial(() -> new byte[0]);
+
+    final DecisionTree.CountKernel scalar = new DecisionTree.ScalarCountKernel();
+
+    @Override
+    public void count(byte[] keys, int keyCount, int[] rows, int[] counts) {
+        int n = rows.length;
+        if (keyCount > MAX_KEYS || n < 4 * SPECIES.length()) {
+            scalar.count(keys, keyCount, rows, counts);
+            return;
+        }
+        // Consecutive rows (the root of the tree) are counted in place; the keys of any other node are
+        // first gathered into a buffer, which has no dependency between rows, unlike the increments
+        if (isRange(rows)) {
+            countRange(keys, rows[0], rows[0] + n, keyCount, counts);
+            return;
+        }
+        byte[] gathered = buffer(GATHERED, n);
+        for (int i = 0; i < n; i++) {
+            gathered[i] = keys[rows[i]];
+        }
+        countRange(gathered, 0, n, keyCount, counts);
+    }
+
+    // Splitting the weights into bit planes and counting each plane with compares and popcounts measured
+    // 3 to 4 times slower than the increments (weights of 1 to 4, 1000000x32x8 and x3, --bench), so
+    // weighted rows are counted with the increments
+    @Override
+    public void count(byte[] keys, int keyCount, int[] rows, int[] weights, int[] counts) {
+        scalar.count(keys, keyCount, rows, weights, counts);
+    }
+
+    // Short keys only exist above 256 keys, far more than MAX_KEYS, where the increments win
+    @Override
+    public void count(short[] keys, int keyCount, int[] rows, int[] counts) {
+        scalar.count(keys, keyCount, rows, counts);
+    }
+
+    @Override
+    public void count(short[] keys, int keyCount, int[] rows, int[] weights, int[] counts) {
+        scalar.count(keys, keyCount, rows, weights, counts);
+    }
+
+    @Override
+    public boolean accelerates(int keyCount, int maxWeight) {
+        return keyCount <= MAX_KEYS && maxWeight == 1;
+    }
+
+    static byte[] buffer(ThreadLocal<byte[]> local, int n) {
+        byte[] buffer = local.get();
+        if (buffer.length < n) {
+            buffer = new byte[n];
+            local.set(buffer);
+        }
+        return buffer;
+    }
+
+    // True when the rows are exactly rows[0], rows[0] + 1, ... The first and last row alone are not
+    // enough, since rows may repeat. The root is checked a vector of rows at a time, once per attribute;
+    // any other node fails the check at its first gap
+    static boolean isRange(int[] rows) {
+        int first = rows[0];
+        if (rows[rows.length - 1] - first != rows.length - 1) return false;
+        int i = 0;
+        int bound = ROWS.loopBound(rows.length);
+        for (; i < bound; i += ROWS.length()) {
+            if (IntVector.fromArray(ROWS, rows, i).compare(VectorOperators.NE, STEPS.add(first + i)).anyTrue()) {
+                return false;
+            }
+        }
+        for (; i < rows.length; i++) {
+            if (rows[i] != first + i) return false;
+        }
+        return true;
+    }
+
+    static void countRange(byte[] keys, int from, int to, int keyCount, int[] counts) {
+        int i = from;
+        int bound = from + SPECIES.loopBound(to - from);
+        for (; i < bound; i += SPECIES.length()) {
+            ByteVector vector = ByteVector.fromArray(SPECIES, keys, i);
+            for (int key = 0; key < keyCount; key++) {
+                counts[key] += vector.eq((byte) key).trueCount();
+            }
+        }
+        for (; i < to; i++) {
+            counts[keys[i] & 0xFF]++;
+        }
+    }
+}
@@ -1,79 +1,140 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
 import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.*;                  // For reading the CSV file
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;                // For using List, Map, Scanner, etc.
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import java.util.regex.Pattern;
 
 public class DecisionTree {
 
-    // Dataset loaded into memory as a list of rows (string arrays)
-    static List<String[]> data = new ArrayList<>();
-    static List<String> headers; // Column names
-    static Map<String, Set<String>> attributeValues = new HashMap<>();
-    static List<String> chosenPath = new ArrayList<>();
+    // Subsets smaller than this are built (and scored) sequentially by the parallel builder
+    static final int PARALLEL_CUTOFF = 2048;
 
     public static void main(String[] args) throws IOException, InterruptedException {
-        //weather.csv
-        //contact_lenses.csv
-        //breast_cancer.csv
-        Scanner sc = new Scanner(System.in);
-
-        // Ask for the base name of the dataset (without extension)
-        System.out.println(" ");
-        System.out.print("Enter dataset base name (e.g., weather, contact_lenses, or breast_cancer): ");
-        String baseName = sc.nextLine().trim();
+        // --metrics[=json:<path>|prometheus:<path>] and --jfr=<file> (both off by default)
+        Metrics.configure(args);
+        // Process-wide: the JDK reads its HTTP server settings once, when the first server is created, so
+        // this is set here before --serve or --stress can start one (a -D on the command line wins).
+        // Headers and body go out as separate writes; without TCP_NODELAY every small response waits
+        // for the client's delayed ACK (about 40 ms)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
 
-        // Ask for the file format
-        String format = "";
-        while (true) {
-            System.out.print("Enter file format (csv or txt): ");
-            format = sc.nextLine().trim().toLowerCase();
-            if (format.equals("csv") || format.equals("txt")) {
-                break;
-            } else {
-                System.out.println("Invalid format. Please enter 'csv' or 'txt'.");
+        // Headless bulk scoring: --score <training file or model> <input file> <output file>
+        if (args.length > 0 && args[0].equals("--score")) {
+            runBatchScoring(args);
+            return;
+        }
+        // Prediction server: --serve <training file or model> [port]
+        if (args.length > 0 && args[0].equals("--serve")) {
+            runServer(args);
+            return;
+        }
+        // Concurrent prediction check: --stress <training file or model> [seconds per step]
+        if (args.length > 0 && args[0].equals("--stress")) {
+            if (args.length < 2) {
+                System.err.println("Usage: --stress <training file or model> [seconds per step]");
+                return;
             }
+            // Exits with status 1 when any concurrent answer or tree differs, so scripts can rely on it
+            if (!ConcurrencyStress.run(args[1], args.length > 2 ? Integer.parseInt(args[2]) : 2, GainKernel.fromArgs(args))) {
+                System.exit(1);
+            }
+            return;
         }
-
-        // Construct the filename with the correct extension
-        String fileName = baseName + "." + format;
-
-        System.out.println("📂 Loading file: " + fileName + "\n ");
-
-        // Load the dataset from the constructed filename
-        try {
-            readDataFile(fileName);
-        } catch (IOException e) {
-            System.err.println("❌ Error reading the file: " + e.getMessage());
-            return; // Exit or handle it accordingly
+        // Bagged ensemble of ID3 trees: --forest <training file> [input file output file]
+        if (args.length > 0 && args[0].equals("--forest")) {
+            runForest(args);
+            return;
         }
-
-
-        // Create a list of indices of feature columns (excluding the label column)
-        List<Integer> features = new ArrayList<>();
-        for (int i = 0; i < headers.size() - 1; i++) {
-            features.add(i);
+        // K-fold cross-validation: --cv <file> [--folds=<k>] [--sweep=<limit>:<values>]
+        if (args.length > 0 && args[0].equals("--cv")) {
+            runCrossValidation(args);
+            return;
+        }
+        // Incremental learning from a stream of rows: --stream <file or - for stdin>
+        if (args.length > 0 && args[0].equals("--stream")) {
+            runStreamLearning(args);
+            return;
+        }
+        // Training on files larger than the heap: --external <file>
+        if (args.length > 0 && args[0].equals("--external")) {
+            runExternalBuild(args);
+            return;
+        }
+        // Micro-benchmarks: --bench [data files or synthetic shapes like 100000x20x8]
+        if (args.length > 0 && args[0].equals("--bench")) {
+            Benchmarks.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
         }
 
-        boolean hasConflicts = detectConflictingDuplicates(data);
+        Scanner sc = new Scanner(System.in);
+        Model model;
 
-        if (hasConflicts) {
-            Scanner scanner = new Scanner(System.in);
-            System.out.print("❓ Conflicts found. Do you want to continue building the tree? (yes/no): ");
-            String answer = scanner.nextLine().trim().toLowerCase();
+        // --model=<file> starts from a saved model instead of reading a dataset and building the tree
+        String modelPath = option(args, "--model");
+        if (modelPath != null) {
+            long start = System.nanoTime();
+            model = new Model(ModelFile.load(modelPath));
+            System.out.printf("📦 Loaded model %s (%d nodes) in %.2f ms\n", modelPath, model.compiled.nodeCount(),
+                    (System.nanoTime() - start) / 1e6);
+        } else {
+            model = trainFromPrompts(sc, args);
+            if (model == null) return;
 
-            if (!answer.equals("yes")) {
-                System.out.println("👋 Program exited by user.");
-                System.exit(0); // Exit the program
+            // --save-model=<file> keeps the trained tree so later runs can skip training
+            String savePath = option(args, "--save-model");
+            if (savePath != null) {
+                ModelFile.save(model.compiled, savePath);
+                System.out.println("💾 Model saved to " + savePath);
             }
         }
-
-
-        // Build the decision tree using ID3 algorithm
-        //Node root = buildTree(data, features);
-        Node root = buildTree(data, features);
+        Node root = model.root;
 
         // Print the decision tree in a readable format
         System.out.println("\n################### DECISION TREE (TEXT-BASED) IS ###################");
@@ -118,26 +179,30 @@ public class DecisionTree {
         System.out.println("   If not, you may get an unknown answer and need to try again to find the correct one.\n");
         System.out.println("-------------------------------------------------------------------------------------------------------------------------------");
 
+        // --render-workers=<n> draws the highlighted trees in the background instead of waiting for dot
+        String renderWorkers = option(args, "--render-workers");
+        PathRenderer renderer = new PathRenderer(root, renderWorkers == null ? 0 : Integer.parseInt(renderWorkers));
+
         while (true) {
             System.out.println("Write (exit) to exit the program or fill it with proper word.");
             List<String> inputs = new ArrayList<>();
-            for (int i = 0; i < headers.size() - 1; i++) {
+            for (int i = 0; i < model.headers.size() - 1; i++) {
                 //System.out.print(headers.get(i) + ": ");
-                String attr = headers.get(i);
-                Set<String> values = attributeValues.get(attr);
+                String attr = model.headers.get(i);
+                Set<String> values = model.attributeValues.get(attr);
                 System.out.print(attr + " " + values + ": ");
 
                 String input = sc.nextLine();
                 if (input.equalsIgnoreCase("exit")) {
                     System.out.println("\uD83D\uDD1A Exiting...");
+                    renderer.finish();
                     System.exit(0); // Fully exit the program
                 }
                 inputs.add(input);
             }
-            // Clearing the chosenPath before calling predict() on every iteration
-            chosenPath.clear();
-            // Perform prediction
-            String prediction = predict(root, inputs);
+            // Perform prediction (the result carries its own path of chosen branches)
+            Prediction result = model.predict(inputs);
+            String prediction = result.label;
 
             if(prediction.equals("Unknown")){
                 System.out.println("Prediction: " + prediction);
@@ -145,86 +210,469 @@ public class DecisionTree {
             }else{
                 System.out.println("\uD83D\uDCCA Prediction: " + prediction);
                 if (!prediction.equalsIgnoreCase("Unknown")) {
-                    exportToGraphviz2(root, "highlighted_tree.dot", chosenPath);
-                    generatePNGFromDot("highlighted_tree.dot", "highlighted_tree.png");
-                    openImageWithDefaultViewer("highlighted_tree.png");
+                    renderer.render(result.path);
                 }
             }
             System.out.println("-------------------------------------------------------------------------------------------------------------------------------");
         }
     }
-    // Function to read a CSV and text files and store the headers and rows
-    static void readDataFile(String fileName) throws IOException {
-        BufferedReader br = new BufferedReader(new FileReader(fileName));
-        String headerLine = br.readLine();
+    // Asks for the dataset, loads it and builds the model (null when the file cannot be read)
+    static Model trainFromPrompts(Scanner sc, String[] args) throws IOException {
+        //weather.csv
+        //contact_lenses.csv
+        //breast_cancer.csv
 
-        // Detect delimiter: Check for comma, semicolon, tab (\t), and space (in that order)
-        String delimiter;
-        if (headerLine.contains(",")) {
-            delimiter = ",";
-        } else if (headerLine.contains(";")) {
-            delimiter = ";";
-        } else if (headerLine.contains("\t")) {
-            delimiter = "\t";
-        } else if (headerLine.contains(" ")) {
-            delimiter = " ";
-        } else if (headerLine.contains(".")) {
-            delimiter = ".";
-        }else {
-            delimiter = ","; // Fallback
+        // Ask for the base name of the dataset (without extension)
+        System.out.println(" ");
+        System.out.print("Enter dataset base name (e.g., weather, contact_lenses, or breast_cancer): ");
+        String baseName = sc.nextLine().trim();
+
+        // Ask for the file format
+        String format = "";
+        while (true) {
+            System.out.print("Enter file format (csv or txt): ");
+            format = sc.nextLine().trim().toLowerCase();
+            if (format.equals("csv") || format.equals("txt")) {
+                break;
+            } else {
+                System.out.println("Invalid format. Please enter 'csv' or 'txt'.");
+            }
+        }
+
+        // Construct the filename with the correct extension
+        String fileName = baseName + "." + format;
+
+        System.out.println("📂 Loading file: " + fileName + "\n ");
+
+        // Load the dataset from the constructed filename
+        EncodedDataset data;
+        try {
+            data = readDataFile(fileName, System.out);
+        } catch (IOException e) {
+            System.err.println("❌ Error reading the file: " + e.getMessage());
+            return null; // Exit or handle it accordingly
         }
 
-        // Process headers
-        headers = Arrays.asList(headerLine.split(delimiter));
 
-        // Initialize map for unique attribute values
-        attributeValues.clear();
-        for (String header : headers) {
-            attributeValues.put(header, new HashSet<>());
+        // Create a list of indices of feature columns (excluding the label column)
+        List<Integer> features = new ArrayList<>();
+        for (int i = 0; i < data.headers.size() - 1; i++) {
+            features.add(i);
         }
 
-        data.clear(); // Clear previous data
+        boolean hasConflicts = detectConflictingDuplicates(data);
 
-        String line;
-        while ((line = br.readLine()) != null) {
-            String[] row = line.split(delimiter);
-            data.add(row);
+        if (hasConflicts) {
+            Scanner scanner = new Scanner(System.in);
+            System.out.print("❓ Conflicts found. Do you want to continue building the tree? (yes/no): ");
+            String answer = scanner.nextLine().trim().toLowerCase();
+
+            if (!answer.equals("yes")) {
+                System.out.println("👋 Program exited by user.");
+                System.exit(0); // Exit the program
+            }
+        }
+
+
+        // --holdout=<fraction> keeps that share of the rows (picked with --seed) out of training; the
+        // finished tree is pruned against them (reduced-error pruning)
+        EncodedDataset holdout = null;
+        String holdoutOption = option(args, "--holdout");
+        if (holdoutOption != null) {
+            String seed = option(args, "--seed");
+            int[][] parts = ReducedErrorPruner.split(data.rowCount, Double.parseDouble(holdoutOption),
+                    seed == null ? 1 : Long.parseLong(seed));
+            holdout = data.select(parts[1]);
+            data = data.select(parts[0]);
+            System.out.printf("🎯 Holding out %d rows for pruning, training on %d\n", holdout.rowCount, data.rowCount);
+        }
+
+        // Identical rows become one weighted row; entropy and gains are computed over the weights.
+        // The bitmap build keeps the rows as loaded, since its popcounts count duplicates directly
+        boolean bitmap = Arrays.asList(args).contains("--bitmap");
+        if (!bitmap) {
+            int loadedRows = data.rowCount;
+            data = collapseDuplicates(data);
+            System.out.printf("🗜 Collapsed %d rows into %d weighted rows\n", loadedRows, data.rowCount);
+        }
+        // --gain-kernel=scalar|vector scores splits from packed byte keys (off by default)
+        data = data.withGainKernel(GainKernel.fromArgs(args));
 
-            for (int i = 0; i < headers.size() && i < row.length; i++) {
-                String value = row[i].trim();
-                attributeValues.get(headers.get(i)).add(value);
+        // --numeric splits the attributes whose values are all numbers on thresholds instead of one
+        // branch per distinct value
+        boolean[] numeric = Arrays.asList(args).contains("--numeric") ? numericColumns(data) : null;
+        if (numeric != null) {
+            List<String> names = new ArrayList<>();
+            for (int f = 0; f < numeric.length; f++) {
+                if (numeric[f]) names.add(data.headers.get(f));
+            }
+            System.out.println("🔢 Numeric attributes (threshold splits): " + String.join(", ", names));
+        }
+
+        // --max-depth, --min-split, --min-leaf and --min-gain stop the build early (pre-pruning)
+        BuildLimits limits = BuildLimits.fromArgs(args);
+
+        // Build the decision tree using ID3 algorithm
+        //Node root = buildTree(data, features);
+        Node root;
+        boolean parallel = Arrays.asList(args).contains("--parallel");
+        if (parallel && (numeric != null || limits.active())) {
+            System.out.println("⚠️ --parallel only builds plain ID3 trees, so it is ignored with "
+                    + (numeric != null ? "--numeric" : "pre-pruning limits") + "; building sequentially");
+        }
+        if (bitmap && numeric != null) {
+            System.out.println("⚠️ --bitmap has no threshold splits, so it is ignored with --numeric");
+        }
+        if (numeric == null && !limits.active() && parallel) {
+            // Same tree as buildTree, built on all cores (the step-wise report is skipped)
+            long start = System.nanoTime();
+            root = buildTreeParallel(data, data.allRows(), features);
+            System.out.printf("🧵 Tree built in parallel on %d threads (%.1f ms)\n",
+                    ForkJoinPool.commonPool().getParallelism(), (System.nanoTime() - start) / 1e6);
+        } else {
+            // --trace=none|console|file:<path>|json:<path> chooses where the step-wise report goes
+            String traceOption = option(args, "--trace");
+            BuildTrace trace = BuildTrace.fromOption(traceOption == null ? "console" : traceOption);
+            long start = System.nanoTime();
+            if (numeric != null) {
+                root = new ThresholdTreeBuilder(data, numeric, limits).build(features, trace);
+            } else if (bitmap) {
+                // Row sets as compressed bitmaps over a per-value index (same tree and report)
+                BitmapIndex index = BitmapIndex.build(data);
+                System.out.println("🧮 Bitmap index: " + index.summary());
+                root = buildTreeBitmap(data, index, index.all, features, trace, limits);
+            } else {
+                root = buildTree(data, data.allRows(), features, trace, limits);
             }
+            long buildNanos = System.nanoTime() - start;
+            trace.close();
+            if (limits.active()) {
+                reportPrePruning(data, numeric, features, limits, root, buildNanos,
+                        Arrays.asList(args).contains("--compare-limits"));
+            }
+        }
+
+        if (holdout != null && holdout.rowCount > 0) {
+            int nodes = countNodes(root);
+            ReducedErrorPruner pruner = new ReducedErrorPruner(data, holdout);
+            pruner.prune(root);
+            System.out.printf("✂️ Reduced-error pruning on %d held-out rows: removed %d of %d nodes, held-out errors %d -> %d\n",
+                    holdout.rowCount, pruner.removed, nodes, pruner.errorsBefore, pruner.errorsAfter);
+        }
+        return new Model(root, data);
+    }
+
+    // Size and build time of the limited tree (the time includes the report). With --compare-limits the
+    // data is built again without a report, once with and once without the limits, and the two are
+    // compared; the tree without limits can take much longer than the limited one. Metrics are off for
+    // these extra builds, so they do not show up in the counters and events
+    static void reportPrePruning(EncodedDataset data, boolean[] numeric, List<Integer> features, BuildLimits limits,
+                                 Node root, long buildNanos, boolean compare) {
+        System.out.printf("✂️ Pre-pruning (%s): %d nodes, built in %.1f ms\n", limits, countNodes(root), buildNanos / 1e6);
+        if (!compare) return;
+
+        long start = System.nanoTime();
+        Node limited = Metrics.unrecorded(() -> numeric != null
+                ? new ThresholdTreeBuilder(data, numeric, limits).build(features, BuildTrace.NONE)
+                : buildTree(data, data.allRows(), features, BuildTrace.NONE, limits));
+        long limitedNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        Node full = Metrics.unrecorded(() -> numeric != null
+                ? new ThresholdTreeBuilder(data, numeric).build(features, BuildTrace.NONE)
+                : buildTree(data, data.allRows(), features, BuildTrace.NONE));
+        long fullNanos = System.nanoTime() - start;
+
+        int limitedNodes = countNodes(limited);
+        int fullNodes = countNodes(full);
+        System.out.printf("✂️ Without limits: %d nodes instead of %d (%d fewer with them), built in %.1f ms instead of %.1f ms (%.1f ms saved)\n",
+                fullNodes, limitedNodes, fullNodes - limitedNodes, fullNanos / 1e6, limitedNanos / 1e6,
+                (fullNanos - limitedNanos) / 1e6);
+    }
+
+    // Value of a --name=value argument, or null when it is not given
+    static String option(String[] args, String name) {
+        for (String arg : args) {
+            if (arg.startsWith(name + "=")) return arg.substring(name.length() + 1);
+        }
+        return null;
+    }
+
+    // Trains a model from the training file (or loads it when the file is a saved model) and scores
+    // a whole input file without any prompts
+    static void runBatchScoring(String[] args) throws IOException, InterruptedException {
+        if (args.length < 4) {
+            System.err.println("Usage: --score <training file> <input file> <output file> [threads]");
+            return;
+        }
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+        CompiledTree model = loadOrTrain(args[1], GainKernel.fromArgs(args));
+
+        System.out.println("📊 Scoring: " + args[2] + " -> " + args[3]);
+        LoadStats stats = BatchScorer.score(model, args[2], args[3], threads);
+        System.out.printf("✅ Scored %d rows (%.2f MB) in %.1f ms on %d threads: %.0f rows/s, %.1f MB/s\n",
+                stats.rows, stats.bytes / (1024.0 * 1024.0), stats.nanos / 1e6, threads,
+                stats.rowsPerSecond(), stats.megabytesPerSecond());
+    }
+
+    // A saved model file is loaded as is; any other file is read as a dataset and trained on without prompts
+    // (scoring the splits with the given kernel, or with the plain informationGain when it is null)
+    static CompiledTree loadOrTrain(String path, CountKernel kernel) throws IOException {
+        if (ModelFile.isModelFile(path)) {
+            long start = System.nanoTime();
+            CompiledTree model = ModelFile.load(path);
+            System.out.printf("📦 Loaded model %s (%d nodes) in %.2f ms\n", path, model.nodeCount(),
+                    (System.nanoTime() - start) / 1e6);
+            return model;
+        }
+        System.out.println("📂 Training on: " + path);
+        EncodedDataset data = collapseDuplicates(readDataFile(path, System.out)).withGainKernel(kernel);
+        List<Integer> features = new ArrayList<>();
+        for (int i = 0; i < data.headers.size() - 1; i++) {
+            features.add(i);
+        }
+        Node root = buildTreeParallel(data, data.allRows(), features);
+        return CompiledTree.compile(root, data);
+    }
+
+    // HTTP prediction endpoint: --serve <training file or model> [port]. With --load=<clients>x<seconds>
+    // (and optionally --batch=<rows>) it starts on a free port, runs the load generator against itself
+    // and stops
+    static void runServer(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: --serve <training file or model> [port] [--load=<clients>x<seconds>] [--batch=<rows>] [--watch[=<ms>]]");
+            return;
+        }
+        CountKernel kernel = GainKernel.fromArgs(args);
+        ModelRegistry registry = new ModelRegistry(args[1], kernel, loadOrTrain(args[1], kernel));
+        String watch = option(args, "--watch");
+        if (watch != null || Arrays.asList(args).contains("--watch")) {
+            long interval = watch == null ? 1000 : Long.parseLong(watch);
+            registry.watch(interval);
+            System.out.printf("👀 Watching %s every %d ms, changes are retrained and swapped in without a pause\n",
+                    args[1], interval);
+        }
+        String load = option(args, "--load");
+        int port = load != null ? 0 : args.length > 2 && !args[2].startsWith("--") ? Integer.parseInt(args[2]) : 8080;
+
+        PredictionServer server = new PredictionServer(registry, port);
+        server.start();
+        System.out.printf("🌐 Serving predictions on http://localhost:%d/predict (%s threads)\n", server.port(),
+                PredictionServer.virtualThreads() ? "virtual" : PredictionServer.POOL_THREADS + " pooled platform");
+
+        if (load != null) {
+            String[] shape = load.split("x");
+            String batch = option(args, "--batch");
+            LoadGenerator.run(server, Integer.parseInt(shape[0]), Integer.parseInt(shape[1]),
+                    batch == null ? 1 : Integer.parseInt(batch));
+            server.stop();
+            registry.stop();
+        } else {
+            System.out.println("📊 Latency and request counts: http://localhost:" + server.port() + "/stats");
+        }
+    }
+
+    // Random forest: --forest <training file> [input file output file] with --trees=<n> (default 100),
+    // --features=<attributes per split> (default the square root of the attribute count) and --seed=<n>.
+    // Prints the out-of-bag accuracy and, given an input and output file, scores the input like --score
+    static void runForest(String[] args) throws IOException, InterruptedException {
+        List<String> files = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if (!args[i].startsWith("--")) files.add(args[i]);
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage: --forest <training file> [input file output file] [--trees=<n>] [--features=<k>] [--seed=<n>]");
+            return;
+        }
+
+        System.out.println("📂 Training on: " + files.get(0));
+        EncodedDataset data = collapseDuplicates(readDataFile(files.get(0), System.out)).withGainKernel(GainKernel.fromArgs(args));
+        String trees = option(args, "--trees");
+        String features = option(args, "--features");
+        String seed = option(args, "--seed");
+        int treeCount = trees == null ? 100 : Integer.parseInt(trees);
+        int sampleSize = features == null ? Math.max(1, (int) Math.round(Math.sqrt(data.featureCount())))
+                : Integer.parseInt(features);
+
+        long start = System.nanoTime();
+        Forest forest = Forest.train(data, treeCount, sampleSize, seed == null ? 1 : Long.parseLong(seed));
+        System.out.printf("🌲 Trained %d trees (%d attributes per split, %d nodes) on %d threads in %.1f ms\n",
+                treeCount, sampleSize, forest.nodeCount(), ForkJoinPool.commonPool().getParallelism(),
+                (System.nanoTime() - start) / 1e6);
+        System.out.printf("🎯 Out-of-bag accuracy: forest %.2f%%, single trees %.2f%% on average\n",
+                100 * forest.outOfBagAccuracy, 100 * forest.treeOutOfBagAccuracy);
+
+        if (files.size() >= 3) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            System.out.println("📊 Scoring: " + files.get(1) + " -> " + files.get(2));
+            LoadStats stats = BatchScorer.score(forest, files.get(1), files.get(2), threads);
+            System.out.printf("✅ Scored %d rows (%.2f MB) in %.1f ms on %d threads: %.0f rows/s, %.1f MB/s\n",
+                    stats.rows, stats.bytes / (1024.0 * 1024.0), stats.nanos / 1e6, threads,
+                    stats.rowsPerSecond(), stats.megabytesPerSecond());
+        }
+    }
+
+    // Loads the dataset once and cross-validates every setting of the sweep on it, printing per setting the
+    // folds' accuracy, build and predict times, and the confusion matrix over all folds
+    static void runCrossValidation(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: --cv <file> [--folds=<k>] [--seed=<n>] [--numeric] [--max-depth=<n> ...] [--sweep=<limit>:<v1>,<v2>,...]");
+            return;
+        }
+        List<BuildLimits> settings;
+        try {
+            settings = CrossValidation.settings(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("❌ " + e.getMessage());
+            return;
+        }
+
+        // Duplicate rows are not collapsed, so each fold holds out rows as they are in the file
+        System.out.println("📂 Training on: " + args[1]);
+        EncodedDataset data = readDataFile(args[1], System.out).withGainKernel(GainKernel.fromArgs(args));
+        boolean[] numeric = Arrays.asList(args).contains("--numeric") ? numericColumns(data) : null;
+        String folds = option(args, "--folds");
+        String seed = option(args, "--seed");
+        CrossValidation validation = new CrossValidation(data, numeric, folds == null ? 10 : Integer.parseInt(folds),
+                seed == null ? 1 : Long.parseLong(seed));
+
+        long start = System.nanoTime();
+        List<CrossValidation.Result> results = validation.run(settings);
+        System.out.printf("🔁 %d-fold cross-validation of %d setting%s on %d rows: %d builds on %d threads in %.1f ms\n",
+                validation.testRows.length, settings.size(), settings.size() == 1 ? "" : "s", data.rowCount,
+                settings.size() * validation.testRows.length, ForkJoinPool.commonPool().getParallelism(),
+                (System.nanoTime() - start) / 1e6);
+        for (CrossValidation.Result result : results) {
+            System.out.println();
+            result.print(System.out, data.classes);
+        }
+        if (results.size() > 1) {
+            CrossValidation.Result best = Collections.max(results, Comparator.comparingDouble(CrossValidation.Result::accuracy));
+            System.out.printf("\n🏆 Best setting: %s (%.2f%%)\n", best.name(), 100 * best.accuracy());
+        }
+    }
+
+    // Learns a Hoeffding tree from rows as they arrive (the header line first), reporting progress as it
+    // goes; when the stream ends the tree is printed and optionally saved with --save-model=<file>
+    static void runStreamLearning(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: --stream <file or -> [--grace=200] [--delta=1e-7] [--tie=0.05] [--save-model=<file>]");
+            return;
+        }
+        String grace = option(args, "--grace");
+        String delta = option(args, "--delta");
+        String tie = option(args, "--tie");
+
+        BufferedReader br = args[1].equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : new BufferedReader(new FileReader(args[1]));
+        String headerLine = br.readLine();
+        if (headerLine == null) {
+            System.err.println("❌ The stream is empty.");
+            return;
         }
+        String delimiter = detectDelimiter(headerLine);
+        Pattern separator = Pattern.compile(Pattern.quote(delimiter));
+        HoeffdingTree learner = new HoeffdingTree(Arrays.asList(separator.split(headerLine)),
+                grace == null ? 200 : Integer.parseInt(grace),
+                delta == null ? 1e-7 : Double.parseDouble(delta),
+                tie == null ? 0.05 : Double.parseDouble(tie));
 
+        long start = System.nanoTime();
+        String line;
+        while ((line = br.readLine()) != null) {
+            if (line.isEmpty()) continue;
+            learner.learn(separator.split(line));
+            if (learner.rows % 100_000 == 0) {
+                System.out.printf("🌊 %d rows, %d nodes (%d leaves), %.0f rows/s\n", learner.rows, learner.nodeCount,
+                        learner.leafCount, learner.rows / ((System.nanoTime() - start) / 1e9));
+            }
+        }
         br.close();
+
+        Node root = learner.toNode();
+        System.out.printf("✅ Learned from %d rows: %d nodes (%d leaves)\n", learner.rows, learner.nodeCount, learner.leafCount);
+        System.out.println("\n################### DECISION TREE (TEXT-BASED) IS ###################");
+        printTree2(root, "", true);
+
+        String savePath = option(args, "--save-model");
+        if (savePath != null) {
+            ModelFile.save(learner.compile(root), savePath);
+            System.out.println("💾 Model saved to " + savePath);
+        }
+    }
+
+    // Builds the tree level by level from the file on disk (see OutOfCoreBuilder), prints it and
+    // optionally saves it with --save-model=<file>
+    static void runExternalBuild(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: --external <file> [--save-model=<file>]");
+            return;
+        }
+        OutOfCoreBuilder builder = new OutOfCoreBuilder(args[1], Runtime.getRuntime().availableProcessors());
+        long start = System.nanoTime();
+        Node root = builder.build();
+        System.out.printf("✅ Built from %d rows in %d passes over the file (%.1f ms), peak frontier %d nodes / %.1f KB of counts\n",
+                builder.rows, builder.passes, (System.nanoTime() - start) / 1e6, builder.peakFrontier,
+                builder.peakFrontierBytes / 1024.0);
+
+        System.out.println("\n################### DECISION TREE (TEXT-BASED) IS ###################");
+        printTree2(root, "", true);
+
+        String savePath = option(args, "--save-model");
+        if (savePath != null) {
+            ModelFile.save(builder.compile(root), savePath);
+            System.out.println("💾 Model saved to " + savePath);
+        }
+    }
+
+    // Function to read a CSV and text files into the headers and the encoded columns
+    // The file is parsed in parallel chunks by ChunkedLoader; the load throughput goes to report (if not null)
+    static EncodedDataset readDataFile(String fileName, PrintStream report) throws IOException {
+        ChunkedLoader loader = new ChunkedLoader(fileName);
+        EncodedDataset data = loader.load();
+        Metrics.loaded(loader.stats);
+        if (report != null) {
+            report.println("📈 " + loader.stats);
+        }
+        return data;
+    }
+
+    // Detect delimiter: Check for comma, semicolon, tab (\t), space and dot (in that order)
+    static String detectDelimiter(String headerLine) {
+        if (headerLine.contains(",")) {
+            return ",";
+        } else if (headerLine.contains(";")) {
+            return ";";
+        } else if (headerLine.contains("\t")) {
+            return "\t";
+        } else if (headerLine.contains(" ")) {
+            return " ";
+        } else if (headerLine.contains(".")) {
+            return ".";
+        } else {
+            return ","; // Fallback
+        }
     }
 
     // Checks for conflicting duplicates in the dataset
-    static boolean detectConflictingDuplicates(List<String[]> data) {
-        Map<String, String> featureToLabel = new HashMap<>();
-        Map<String, Integer> featureToLine = new HashMap<>();
+    // Rows are compared by 64-bit fingerprints of their encoded features (see DuplicateIndex); a row
+    // conflicts when its first identical row has another label. Conflicts are reported in row order
+    static boolean detectConflictingDuplicates(EncodedDataset data) {
+        int[] first = DuplicateIndex.firstOccurrence(data, false);
         boolean conflictFound = false;
 
-        for (int i = 0; i < data.size(); i++) {
-            String[] row = data.get(i);
-            String label = row[row.length - 1];
-            String featureKey = String.join(",", Arrays.copyOf(row, row.length - 1));
-            int lineNumber = i + 2; // Line numbers start from 1
-
-            if (featureToLabel.containsKey(featureKey)) {
-                String existingLabel = featureToLabel.get(featureKey);
-                int firstLine = featureToLine.get(featureKey);
-                if (!existingLabel.equals(label)) {
-                    System.out.println("⚠️ Conflict detected:");
-                    System.out.println(" - Features: " + featureKey);
-                    System.out.println(" - Label '" + existingLabel + "' at line " + firstLine);
-                    System.out.println(" - Label '" + label + "' at line " + lineNumber);
-                    conflictFound = true;
-                }
-            } else {
-                featureToLabel.put(featureKey, label);
-                featureToLine.put(featureKey, lineNumber);
+        for (int i = 0; i < data.rowCount; i++) {
+            if (first[i] == i || data.labels[first[i]] == data.labels[i]) continue;
+            String[] features = new String[data.featureCount()];
+            for (int f = 0; f < features.length; f++) {
+                features[f] = data.value(f, i);
             }
+            System.out.println("⚠️ Conflict detected:");
+            System.out.println(" - Features: " + String.join(",", features));
+            System.out.println(" - Label '" + data.classes[data.labels[first[i]]] + "' at line " + (first[i] + 2));
+            System.out.println(" - Label '" + data.classes[data.labels[i]] + "' at line " + (i + 2)); // Line numbers start from 1
+            conflictFound = true;
         }
 
         if (!conflictFound) {
@@ -234,44 +682,105 @@ public class DecisionTree {
         return conflictFound;
     }
 
-    // Recursive function to build the decision tree
-    static Node buildTree(List<String[]> subset, List<Integer> features) {
-        Map<String, Integer> labelCount = countLabels(subset); // Count class label occurrences
+    // Collapses rows with the same features and label into one weighted row. The weighted rows keep the
+    // order of their first occurrence, so entropy, gains and the built tree are the same as before
+    static EncodedDataset collapseDuplicates(EncodedDataset data) {
+        int[] first = DuplicateIndex.firstOccurrence(data, true);
+        int[] collapsedIndex = new int[data.rowCount];
+        int rows = 0;
+        for (int i = 0; i < data.rowCount; i++) {
+            collapsedIndex[i] = first[i] == i ? rows++ : collapsedIndex[first[i]];
+        }
+
+        int[][] columns = new int[data.featureCount()][rows];
+        int[] labels = new int[rows];
+        int[] weights = new int[rows];
+        int[] firstRow = new int[rows];
+        int[] lastRow = new int[rows];
+        for (int i = 0; i < data.rowCount; i++) {
+            int row = collapsedIndex[i];
+            int original = data.firstRow == null ? i : data.firstRow[i];
+            if (weights[row] == 0) {
+                for (int f = 0; f < columns.length; f++) {
+                    columns[f][row] = data.columns[f][i];
+                }
+                labels[row] = data.labels[i];
+                firstRow[row] = original;
+            }
+            weights[row] += data.weights == null ? 1 : data.weights[i];
+            lastRow[row] = data.lastRow == null ? i : data.lastRow[i];
+        }
+        return new EncodedDataset(data.headers, rows, columns, data.dictionaries, labels, data.classes,
+                weights, firstRow, lastRow, data.gainKernel);
+    }
+
+    // Recursive function to build the decision tree (with the step-wise report on the console)
+    // The subset is given as an array of row indices into the encoded dataset
+    static Node buildTree(EncodedDataset data, int[] subset, List<Integer> features) {
+        return buildTree(data, subset, features, new ConsoleTrace(System.out));
+    }
+
+    // Same build, reporting every step to the given trace (BuildTrace.NONE for no report at all)
+    static Node buildTree(EncodedDataset data, int[] subset, List<Integer> features, BuildTrace trace) {
+        return buildTree(data, subset, features, trace, BuildLimits.NONE);
+    }
+
+    // Same build, stopping early wherever the pre-pruning limits say so
+    static Node buildTree(EncodedDataset data, int[] subset, List<Integer> features, BuildTrace trace,
+                          BuildLimits limits) {
+        long start = Metrics.start();
+        Node root = buildTree(data, subset, features, trace, limits, 0);
+        Metrics.treeBuilt(start);
+        return root;
+    }
+
+    // One node of buildTree at the given depth (the root has depth 0)
+    static Node buildTree(EncodedDataset data, int[] subset, List<Integer> features, BuildTrace trace,
+                          BuildLimits limits, int depth) {
+        NodeBuildEvent event = Metrics.nodeEvent();
+        long start = Metrics.start();
+        Map<String, Integer> labelCount = countLabels(data, subset); // Count class label occurrences
 
         // Step-wise reporting
-        System.out.println("\n==============================");
-        System.out.println("📦 Step: Examining Subset (" + subset.size() + " records)");
-        System.out.println("Class Distribution:");
-        labelCount.forEach((label, count) -> System.out.println(" - " + label + ": " + count));
+        trace.subset(data.weight(subset), labelCount);
 
         // If only one class label exists, return it as a leaf node
         if (labelCount.size() == 1) {
             String result = labelCount.keySet().iterator().next();
-            System.out.println("✅ Pure subset. Creating Leaf Node: " + result);
+            trace.pureLeaf(result);
+            Metrics.nodeBuilt(event, start, depth, subset.length, null, 0);
             return new Node(null, result);
         }
 
         // If no more features to split, return majority class as leaf
         if (features.isEmpty()) {
             String majority = majorityLabel(labelCount);
-            System.out.println("⚠️ No remaining features. Creating Leaf Node with Majority Class: " + majority);
+            trace.noFeaturesLeaf(majority);
+            Metrics.nodeBuilt(event, start, depth, subset.length, null, 0);
+            return new Node(null, majority);
+        }
+
+        // Pre-pruning: too deep or too few rows to split (never with the default limits)
+        BuildLimits.Stop stop = limits.stopBefore(depth, data, subset);
+        if (stop != null) {
+            String majority = majorityLabel(labelCount);
+            trace.limitLeaf(stop, limits, Double.NaN, majority);
+            Metrics.nodeBuilt(event, start, depth, subset.length, null, 0);
             return new Node(null, majority);
         }
 
         // Step 1: Calculate entropy of current dataset
-        double baseEntropy = entropy(subset);
-        System.out.println("\nStep 1: Entropy of Current Subset");
-        System.out.println("Entropy(S) = " + String.format("%.4f", baseEntropy));
+        double baseEntropy = entropy(data, subset);
+        trace.entropy(baseEntropy);
 
         // Step 2: Information Gain for each feature
-        System.out.println("\nStep 2: Information Gain for Each Feature");
         int bestFeature = -1;
         double bestGain = -1;
 
         for (int feature : features) {
-            double gain = informationGain(subset, feature, baseEntropy);
-            System.out.printf(" - %s: Gain = %.4f\n", headers.get(feature), gain);
-            if (gain > bestGain) {
+            double gain = informationGain(data, subset, feature, baseEntropy);
+            trace.gain(data.headers.get(feature), gain);
+            if (gain > bestGain && limits.branchesLargeEnough(data, subset, feature)) {
                 bestGain = gain;
                 bestFeature = feature;
             }
@@ -280,293 +789,5503 @@ public class DecisionTree {
         // If no feature provides information gain, return majority class
         if (bestFeature == -1) {
             String majority = majorityLabel(labelCount);
-            System.out.println("⚠️ No feature improves entropy. Creating Leaf Node with Majority Class: " + majority);
+            if (limits.minLeaf > 1) {
+                trace.limitLeaf(BuildLimits.Stop.MIN_LEAF, limits, bestGain, majority);
+            } else {
+                trace.noGainLeaf(majority);
+            }
+            Metrics.nodeBuilt(event, start, depth, subset.length, null, 0);
+            return new Node(null, majority);
+        }
+        if (bestGain < limits.minGain) {
+            String majority = majorityLabel(labelCount);
+            trace.limitLeaf(BuildLimits.Stop.MIN_GAIN, limits, bestGain, majority);
+            Metrics.nodeBuilt(event, start, depth, subset.length, null, 0);
             return new Node(null, majority);
         }
 
         // Step 3: Splitting based on best feature
-        String bestAttr = headers.get(bestFeature);
-        System.out.println("\nStep 3: Best Feature to Split: " + bestAttr);
-        System.out.println("→ Splitting on: " + bestAttr + " (Gain = " + String.format("%.4f", bestGain) + ")");
+        String bestAttr = data.headers.get(bestFeature);
+        trace.split(bestAttr, bestGain);
 
         Node node = new Node(bestAttr);
-        Map<String, List<String[]>> splits = splitByFeature(subset, bestFeature);
+        Map<String, int[]> splits = splitByFeature(data, subset, bestFeature);
         List<Integer> newFeatures = new ArrayList<>(features);
         newFeatures.remove(Integer.valueOf(bestFeature));
+        Metrics.nodeBuilt(event, start, depth, subset.length, bestAttr, bestGain);
 
         // Step 4: Recurse on each split
         for (String value : splits.keySet()) {
-            System.out.println("\n🔸 Creating Branch: " + bestAttr + " = " + value);
-            node.children.put(value, buildTree(splits.get(value), newFeatures));
+            trace.branch(bestAttr, value);
+            node.children.put(value, buildTree(data, splits.get(value), newFeatures, trace, limits, depth + 1));
         }
 
         return node;
     }
 
-    // Calculate entropy of a dataset
-    static double entropy(List<String[]> subset) {
-        Map<String, Integer> labelCount = countLabels(subset);
-        double entropy = 0;
-        int total = subset.size();
+    // Pre-pruning: conditions under which a node becomes a majority leaf instead of being split.
+    // NONE never stops a build, so the tree is the plain ID3 one
+    static class BuildLimits {
+        static final BuildLimits NONE = new BuildLimits(Integer.MAX_VALUE, 0, 1, Double.NEGATIVE_INFINITY);
 
-        // Compute entropy formula: -sum(p * log2(p))
-        for (int count : labelCount.values()) {
-            double p = (double) count / total;
-            entropy -= p * (Math.log(p) / Math.log(2)); // Negative point calculated her!
+        final int maxDepth;     // Nodes at this depth become leaves (the root has depth 0)
+        final int minSplit;     // Nodes with fewer rows become leaves
+        final int minLeaf;      // A split must give every branch at least this many rows
+        final double minGain;   // A node whose best gain is lower becomes a leaf
+
+        BuildLimits(int maxDepth, int minSplit, int minLeaf, double minGain) {
+            this.maxDepth = maxDepth;
+            this.minSplit = minSplit;
+            this.minLeaf = minLeaf;
+            this.minGain = minGain;
         }
-        return entropy;
-    }
 
-    // Calculate information gain of splitting on a feature
-    static double informationGain(List<String[]> subset, int feature, double baseEntropy) {
-        Map<String, List<String[]>> splits = splitByFeature(subset, feature);
-        List<List<String[]>> groups = new ArrayList<>(splits.values());
-        double newEntropy = 0;
-        int total = subset.size();
+        // --max-depth=<n>, --min-split=<rows>, --min-leaf=<rows> and --min-gain=<gain>; NONE when none is given
+        static BuildLimits fromArgs(String[] args) {
+            String maxDepth = option(args, "--max-depth");
+            String minSplit = option(args, "--min-split");
+            String minLeaf = option(args, "--min-leaf");
+            String minGain = option(args, "--min-gain");
+            if (maxDepth == null && minSplit == null && minLeaf == null && minGain == null) return NONE;
+            return new BuildLimits(maxDepth == null ? NONE.maxDepth : Integer.parseInt(maxDepth),
+                    minSplit == null ? NONE.minSplit : Integer.parseInt(minSplit),
+                    minLeaf == null ? NONE.minLeaf : Math.max(1, Integer.parseInt(minLeaf)),
+                    minGain == null ? NONE.minGain : Double.parseDouble(minGain));
+        }
 
-        // Calculate weighted entropy after split using classic for loop
-        for (List<String[]> group : groups) {
-            double weight = (double) group.size() / total;
-            newEntropy += weight * entropy(group);
+        boolean active() {
+            return this != NONE;
+        }
+
+        // The limit that turned a node into a leaf. Builders hand it to the trace as is, so the
+        // reason text is only formatted by traces that print it
+        enum Stop {
+            MAX_DEPTH, MIN_SPLIT, MIN_LEAF, MIN_GAIN;
+
+            // gain is the node's best gain (NaN when the node stopped before the gains were computed)
+            String reason(BuildLimits limits, double gain) {
+                switch (this) {
+                    case MAX_DEPTH: return "max depth " + limits.maxDepth + " reached";
+                    case MIN_SPLIT: return "fewer than " + limits.minSplit + " rows";
+                    case MIN_LEAF: return "every split leaves a branch with fewer than " + limits.minLeaf + " rows";
+                    default: return String.format("best gain %.4f is below %s", gain, limits.minGain);
+                }
+            }
+        }
+
+        // Why a node at this depth is not split (null when it may be). Rows are counted with their weights
+        Stop stopBefore(int depth, EncodedDataset data, int[] subset) {
+            if (depth >= maxDepth) return Stop.MAX_DEPTH;
+            if (minSplit > 0 && data.weight(subset) < minSplit) return Stop.MIN_SPLIT;
+            return null;
+        }
+
+        // The same for a node of unweighted rows, given their number
+        Stop stopBefore(int depth, int rows) {
+            if (depth >= maxDepth) return Stop.MAX_DEPTH;
+            if (rows < minSplit) return Stop.MIN_SPLIT;
+            return null;
+        }
+
+        // True when splitting on the attribute gives every branch at least minLeaf rows
+        boolean branchesLargeEnough(EncodedDataset data, int[] subset, int feature) {
+            if (minLeaf <= 1) return true;
+            int[] column = data.columns[feature];
+            int[] totals = new int[data.dictionaries[feature].length];
+            for (int row : subset) {
+                totals[column[row]] += data.weights == null ? 1 : data.weights[row];
+            }
+            return branchesLargeEnough(totals);
+        }
+
+        // The same check from the rows per value (a value with no rows has no branch)
+        boolean branchesLargeEnough(int[] valueTotals) {
+            if (minLeaf <= 1) return true;
+            for (int total : valueTotals) {
+                if (total > 0 && total < minLeaf) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            List<String> parts = new ArrayList<>();
+            if (maxDepth != NONE.maxDepth) parts.add("max depth " + maxDepth);
+            if (minSplit != NONE.minSplit) parts.add("min split " + minSplit);
+            if (minLeaf != NONE.minLeaf) parts.add("min leaf " + minLeaf);
+            if (minGain != NONE.minGain) parts.add("min gain " + minGain);
+            return String.join(", ", parts);
+        }
+    }
+
+    // Reduced-error post-pruning: the training rows and the held-out rows are routed down the finished
+    // tree once, keeping class counts per node. Then, from the bottom up, a subtree becomes a leaf with
+    // its training majority whenever that leaf makes no more mistakes on the held-out rows than the
+    // (already pruned) subtree does
+    static class ReducedErrorPruner {
+        final EncodedDataset train;
+        final EncodedDataset holdout;
+        final Map<Node, int[]> trainCounts = new IdentityHashMap<>();   // Class counts of the rows reaching a node
+        final Map<Node, int[]> holdoutCounts = new IdentityHashMap<>();
+        final Map<Node, Integer> holdoutStuck = new IdentityHashMap<>(); // Held-out rows with no branch to follow
+        int removed;
+        int errorsBefore;
+        int errorsAfter;
+
+        ReducedErrorPruner(EncodedDataset train, EncodedDataset holdout) {
+            this.train = train;
+            this.holdout = holdout;
+        }
+
+        // Rows split at random into {training rows, held-out rows}, both in their original order
+        static int[][] split(int rows, double fraction, long seed) {
+            int[] order = IntStream.range(0, rows).toArray();
+            Random random = new Random(seed);
+            for (int i = rows - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+            }
+            int held = (int) Math.round(rows * fraction);
+            int[] holdoutRows = Arrays.copyOfRange(order, 0, held);
+            int[] trainRows = Arrays.copyOfRange(order, held, rows);
+            Arrays.sort(holdoutRows);
+            Arrays.sort(trainRows);
+            return new int[][]{trainRows, holdoutRows};
+        }
+
+        // Prunes the tree in place (it is not shared with any Model yet)
+        void prune(Node root) {
+            for (int row = 0; row < train.rowCount; row++) {
+                route(root, train, row, train.weights == null ? 1 : train.weights[row], trainCounts, null);
+            }
+            for (int row = 0; row < holdout.rowCount; row++) {
+                route(root, holdout, row, holdout.weights == null ? 1 : holdout.weights[row], holdoutCounts, holdoutStuck);
+            }
+            errorsBefore = errors(root);
+            errorsAfter = pruneSubtree(root);
+        }
+
+        void route(Node node, EncodedDataset data, int row, int weight, Map<Node, int[]> counts,
+                   Map<Node, Integer> stuck) {
+            while (true) {
+                counts.computeIfAbsent(node, n -> new int[data.classes.length])[data.labels[row]] += weight;
+                if (node.isLeaf()) return;
+                String value = data.value(data.headers.indexOf(node.attribute), row);
+                Node child;
+                if (node.isNumeric()) {
+                    double number = parseNumber(value);
+                    Iterator<Node> sides = node.children.values().iterator();
+                    Node below = sides.next();
+                    Node above = sides.next();
+                    child = Double.isNaN(number) ? null : number <= node.threshold ? below : above;
+                } else {
+                    child = node.children.get(value);
+                }
+                if (child == null) {
+                    if (stuck != null) stuck.merge(node, weight, Integer::sum);
+                    return;
+                }
+                node = child;
+            }
+        }
+
+        // Held-out mistakes of the subtree (rows without a branch to follow count as mistakes)
+        int errors(Node node) {
+            if (node.isLeaf()) return leafErrors(node, node.label);
+            int errors = holdoutStuck.getOrDefault(node, 0);
+            for (Node child : node.children.values()) {
+                errors += errors(child);
+            }
+            return errors;
+        }
+
+        // Held-out mistakes of the subtree once it is pruned
+        int pruneSubtree(Node node) {
+            if (node.isLeaf()) return leafErrors(node, node.label);
+            int subtreeErrors = holdoutStuck.getOrDefault(node, 0);
+            for (Node child : node.children.values()) {
+                subtreeErrors += pruneSubtree(child);
+            }
+            String majority = majority(trainCounts.get(node));
+            int asLeaf = leafErrors(node, majority);
+            if (asLeaf > subtreeErrors) return subtreeErrors;
+
+            removed += countNodes(node) - 1;
+            node.attribute = null;
+            node.label = majority;
+            node.threshold = Double.NaN;
+            node.children = new LinkedHashMap<>();
+            return asLeaf;
+        }
+
+        int leafErrors(Node node, String label) {
+            int[] counts = holdoutCounts.get(node);
+            if (counts == null) return 0;
+            int total = 0;
+            int correct = 0;
+            for (int c = 0; c < counts.length; c++) {
+                total += counts[c];
+                if (holdout.classes[c].equals(label)) correct += counts[c];
+            }
+            return total - correct;
+        }
+
+        // Same choice (and tie-breaking) as the builders make for a majority leaf
+        String majority(int[] counts) {
+            Map<String, Integer> labelCount = new HashMap<>();
+            for (int c = 0; c < counts.length; c++) {
+                if (counts[c] > 0) labelCount.put(train.classes[c], counts[c]);
+            }
+            return majorityLabel(labelCount);
+        }
+    }
+
+    // K-fold cross-validation over one loaded dataset. A fold is two index views into the shared columns
+    // (its training rows and its test rows), so no fold copies the data: the tree is built from the
+    // training rows and the test rows are scored straight from the columns. After a seeded shuffle the
+    // rows are dealt to the folds class by class, so every fold gets about the same class mix. Each
+    // (setting, fold) pair is an independent fork/join task
+    static class CrossValidation {
+        static final List<String> SWEEPABLE = List.of("max-depth", "min-split", "min-leaf", "min-gain");
+
+        final EncodedDataset data;
+        final boolean[] numeric;    // null for categorical splits only
+        final int[][] testRows;     // Per fold, ascending
+        final int[][] trainRows;    // Per fold, every other row, ascending
+        final List<Integer> features = new ArrayList<>();
+
+        CrossValidation(EncodedDataset data, boolean[] numeric, int folds, long seed) {
+            this.data = data;
+            this.numeric = numeric;
+            for (int f = 0; f < data.featureCount(); f++) features.add(f);
+
+            folds = Math.max(2, Math.min(folds, data.rowCount));
+            int[] order = IntStream.range(0, data.rowCount).toArray();
+            Random random = new Random(seed);
+            for (int i = order.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+            }
+            // Stable counting sort of the shuffled rows by class, then round-robin over the folds
+            int[] start = new int[data.classes.length + 1];
+            for (int row = 0; row < data.rowCount; row++) start[data.labels[row] + 1]++;
+            for (int c = 1; c < start.length; c++) start[c] += start[c - 1];
+            int[] byClass = new int[data.rowCount];
+            for (int row : order) byClass[start[data.labels[row]]++] = row;
+            int[] foldOf = new int[data.rowCount];
+            for (int i = 0; i < byClass.length; i++) foldOf[byClass[i]] = i % folds;
+
+            testRows = new int[folds][];
+            trainRows = new int[folds][];
+            for (int k = 0; k < folds; k++) {
+                int fold = k;
+                testRows[k] = IntStream.range(0, data.rowCount).filter(row -> foldOf[row] == fold).toArray();
+                trainRows[k] = IntStream.range(0, data.rowCount).filter(row -> foldOf[row] != fold).toArray();
+            }
+        }
+
+        // The limits given with --max-depth etc., varied by every --sweep=<limit>:<v1>,<v2>,... (several
+        // sweeps make a grid). "none" leaves the limit unset for that setting
+        static List<BuildLimits> settings(String[] args) {
+            List<List<String>> grid = new ArrayList<>();
+            grid.add(new ArrayList<>());
+            for (String arg : args) {
+                if (!arg.startsWith("--sweep=")) {
+                    grid.get(0).add(arg);
+                }
+            }
+            for (String arg : args) {
+                if (!arg.startsWith("--sweep=")) continue;
+                String[] sweep = arg.substring("--sweep=".length()).split(":", 2);
+                if (sweep.length < 2 || !SWEEPABLE.contains(sweep[0])) {
+                    throw new IllegalArgumentException("Expected --sweep=<limit>:<v1>,<v2>,... with one of " + SWEEPABLE + ": " + arg);
+                }
+                String name = "--" + sweep[0];
+                List<List<String>> next = new ArrayList<>();
+                for (List<String> setting : grid) {
+                    for (String value : sweep[1].split(",")) {
+                        List<String> varied = new ArrayList<>(setting);
+                        varied.removeIf(a -> a.startsWith(name + "="));
+                        if (!value.equals("none")) varied.add(name + "=" + value);
+                        next.add(varied);
+                    }
+                }
+                grid = next;
+            }
+            List<BuildLimits> settings = new ArrayList<>();
+            for (List<String> setting : grid) {
+                settings.add(BuildLimits.fromArgs(setting.toArray(new String[0])));
+            }
+            return settings;
+        }
+
+        List<Result> run(List<BuildLimits> settings) {
+            Fold[][] folds = new Fold[settings.size()][testRows.length];
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (int s = 0; s < settings.size(); s++) {
+                for (int k = 0; k < testRows.length; k++) {
+                    int setting = s;
+                    int fold = k;
+                    tasks.add(ForkJoinTask.adapt(() -> folds[setting][fold] = runFold(settings.get(setting), fold)));
+                }
+            }
+            ForkJoinTask.invokeAll(tasks);
+
+            List<Result> results = new ArrayList<>();
+            for (int s = 0; s < settings.size(); s++) {
+                results.add(new Result(settings.get(s), folds[s]));
+            }
+            return results;
+        }
+
+        Fold runFold(BuildLimits limits, int k) {
+            long start = System.nanoTime();
+            Node root = numeric != null
+                    ? new ThresholdTreeBuilder(data, numeric, limits).build(trainRows[k], features, BuildTrace.NONE)
+                    : buildTree(data, trainRows[k], features, BuildTrace.NONE, limits);
+            CompiledTree model = CompiledTree.compile(root, data);
+            long built = System.nanoTime();
+
+            // Class ids of the model are the dataset's, since it was compiled against the same dictionaries
+            int[][] slots = model.slotsFor(data);
+            Fold fold = new Fold(testRows[k].length, model.nodeCount(), data.classes.length);
+            for (int row : testRows[k]) {
+                int predicted = model.predictRow(data.columns, slots, row);
+                fold.confusion[data.labels[row]][predicted < 0 ? data.classes.length : predicted]++;
+            }
+            fold.buildNanos = built - start;
+            fold.predictNanos = System.nanoTime() - built;
+            return fold;
+        }
+
+        static final class Fold {
+            final int rows;
+            final int nodes;
+            final int[][] confusion;    // [actual class][predicted class], the last column counts Unknown
+            long buildNanos;
+            long predictNanos;
+
+            Fold(int rows, int nodes, int classes) {
+                this.rows = rows;
+                this.nodes = nodes;
+                this.confusion = new int[classes][classes + 1];
+            }
+
+            int correct() {
+                int correct = 0;
+                for (int c = 0; c < confusion.length; c++) correct += confusion[c][c];
+                return correct;
+            }
+
+            double accuracy() {
+                return rows == 0 ? 0 : (double) correct() / rows;
+            }
+        }
+
+        static final class Result {
+            final BuildLimits limits;
+            final Fold[] folds;
+
+            Result(BuildLimits limits, Fold[] folds) {
+                this.limits = limits;
+                this.folds = folds;
+            }
+
+            // A sweep value can also restore a default, so the text is checked rather than active()
+            String name() {
+                String text = limits.toString();
+                return text.isEmpty() ? "no limits" : text;
+            }
+
+            // Over all test rows, so every row counts once whatever the size of its fold
+            double accuracy() {
+                int correct = 0;
+                int rows = 0;
+                for (Fold fold : folds) {
+                    correct += fold.correct();
+                    rows += fold.rows;
+                }
+                return rows == 0 ? 0 : (double) correct / rows;
+            }
+
+            void print(PrintStream out, String[] classes) {
+                out.println("⚙️ Setting: " + name());
+                out.println("   Fold  Test rows  Accuracy  Build ms  Predict ms  Nodes");
+                double sum = 0;
+                double squares = 0;
+                double nodes = 0;
+                for (int k = 0; k < folds.length; k++) {
+                    Fold fold = folds[k];
+                    out.printf(Locale.ROOT, "   %4d  %9d  %7.2f%%  %8.2f  %10.3f  %5d\n", k + 1, fold.rows,
+                            100 * fold.accuracy(), fold.buildNanos / 1e6, fold.predictNanos / 1e6, fold.nodes);
+                    sum += fold.accuracy();
+                    squares += fold.accuracy() * fold.accuracy();
+                    nodes += fold.nodes;
+                }
+                double mean = sum / folds.length;
+                double deviation = Math.sqrt(Math.max(0, squares / folds.length - mean * mean));
+                out.printf("🎯 Accuracy %.2f%% over all test rows (per fold %.2f%% ± %.2f), %.1f nodes on average\n",
+                        100 * accuracy(), 100 * mean, 100 * deviation, nodes / folds.length);
+
+                int[][] confusion = new int[classes.length][classes.length + 1];
+                for (Fold fold : folds) {
+                    for (int actual = 0; actual < classes.length; actual++) {
+                        for (int predicted = 0; predicted <= classes.length; predicted++) {
+                            confusion[actual][predicted] += fold.confusion[actual][predicted];
+                        }
+                    }
+                }
+                boolean unknown = false;
+                for (int[] counts : confusion) unknown |= counts[classes.length] > 0;
+                List<String> columns = new ArrayList<>(Arrays.asList(classes));
+                if (unknown) columns.add("Unknown");
+                int width = 7;
+                for (String name : columns) width = Math.max(width, name.length());
+                out.println("📋 Confusion matrix (rows: actual class, columns: predicted class):");
+                StringBuilder header = new StringBuilder(String.format("   %-" + width + "s", ""));
+                for (String name : columns) header.append(String.format("  %" + width + "s", name));
+                out.println(header);
+                for (int actual = 0; actual < classes.length; actual++) {
+                    StringBuilder line = new StringBuilder(String.format("   %-" + width + "s", classes[actual]));
+                    for (int predicted = 0; predicted < columns.size(); predicted++) {
+                        line.append(String.format("  %" + width + "d", confusion[actual][predicted]));
+                    }
+                    out.println(line);
+                }
+            }
+        }
+    }
+
+    static int countNodes(Node node) {
+        int count = 1;
+        for (Node child : node.children.values()) {
+            count += countNodes(child);
+        }
+        return count;
+    }
+
+    // Builds the same tree as buildTree using fork/join: large nodes score their candidate features
+    // concurrently and build their subtrees as separate tasks
+    static Node buildTreeParallel(EncodedDataset data, int[] subset, List<Integer> features) {
+        return ForkJoinPool.commonPool().invoke(new ParallelBuildTask(data, subset, features));
+    }
+
+    // One node of the parallel build. The decisions are the ones buildTree makes, in the same order,
+    // so the resulting tree (including child order) is identical; only the console report is left out
+    static class ParallelBuildTask extends RecursiveTask<Node> {
+        private static final long serialVersionUID = 1L;
+
+        final EncodedDataset data;
+        final int[] subset;
+        final List<Integer> features;
+
+        ParallelBuildTask(EncodedDataset data, int[] subset, List<Integer> features) {
+            this.data = data;
+            this.subset = subset;
+            this.features = features;
+        }
+
+        @Override
+        protected Node compute() {
+            Map<String, Integer> labelCount = countLabels(data, subset);
+            if (labelCount.size() == 1) {
+                return new Node(null, labelCount.keySet().iterator().next());
+            }
+            if (features.isEmpty()) {
+                return new Node(null, majorityLabel(labelCount));
+            }
+
+            boolean large = subset.length >= PARALLEL_CUTOFF;
+            double baseEntropy = entropy(data, subset);
+            double[] gains = new double[features.size()];
+            if (large && features.size() > 1) {
+                List<ForkJoinTask<?>> scoring = new ArrayList<>();
+                for (int i = 0; i < gains.length; i++) {
+                    int index = i;
+                    scoring.add(ForkJoinTask.adapt(() ->
+                            gains[index] = informationGain(data, subset, features.get(index), baseEntropy)));
+                }
+                invokeAll(scoring);
+            } else {
+                for (int i = 0; i < gains.length; i++) {
+                    gains[i] = informationGain(data, subset, features.get(i), baseEntropy);
+                }
+            }
+
+            // Pick the winner in feature order, exactly like the sequential loop
+            int bestFeature = -1;
+            double bestGain = -1;
+            for (int i = 0; i < gains.length; i++) {
+                if (gains[i] > bestGain) {
+                    bestGain = gains[i];
+                    bestFeature = features.get(i);
+                }
+            }
+            if (bestFeature == -1) {
+                return new Node(null, majorityLabel(labelCount));
+            }
+
+            Node node = new Node(data.headers.get(bestFeature));
+            Map<String, int[]> splits = splitByFeature(data, subset, bestFeature);
+            List<Integer> newFeatures = new ArrayList<>(features);
+            newFeatures.remove(Integer.valueOf(bestFeature));
+
+            List<String> values = new ArrayList<>(splits.keySet());
+            List<ParallelBuildTask> children = new ArrayList<>();
+            for (String value : values) {
+                children.add(new ParallelBuildTask(data, splits.get(value), newFeatures));
+            }
+            if (large) {
+                invokeAll(children);
+                for (int i = 0; i < values.size(); i++) {
+                    node.children.put(values.get(i), children.get(i).join());
+                }
+            } else {
+                for (int i = 0; i < values.size(); i++) {
+                    node.children.put(values.get(i), children.get(i).compute());
+                }
+            }
+            return node;
+        }
+    }
+
+    // Same tree and report as buildTree, but the row set of a node is a compressed bitmap. Class counts
+    // and value x class tables are popcounts of intersections with the index, and the children are
+    // intersections with the value bitmaps, so nothing is copied row by row. A popcount touches whole
+    // containers however few rows they hold, so once a node is sparse (or the rows are weighted, which
+    // popcounts cannot count) its subtree is built from the row indices by buildTree
+    static Node buildTreeBitmap(EncodedDataset data, BitmapIndex index, RowBitmap subset, List<Integer> features,
+                                BuildTrace trace) {
+        return buildTreeBitmap(data, index, subset, features, trace, BuildLimits.NONE);
+    }
+
+    // Same build, stopping early wherever the pre-pruning limits say so (the same nodes as buildTree)
+    static Node buildTreeBitmap(EncodedDataset data, BitmapIndex index, RowBitmap subset, List<Integer> features,
+                                BuildTrace trace, BuildLimits limits) {
+        long start = Metrics.start();
+        Node root = buildTreeBitmap(data, index, subset, features, trace, limits, 0);
+        Metrics.treeBuilt(start);
+        return root;
+    }
+
+    static Node buildTreeBitmap(EncodedDataset data, BitmapIndex index, RowBitmap subset, List<Integer> features,
+                                BuildTrace trace, BuildLimits limits, int depth) {
+        int classes = data.classes.length;
+        int rows = subset.cardinality();
+        if (data.weights != null || !popcountPays(rows, classes, subset.size)) {
+            return buildTree(data, subset.toArray(), features, trace, limits, depth);
+        }
+
+        RowBitmap[] byClass = new RowBitmap[classes];
+        int[] counts = new int[classes];
+        Integer[] order = new Integer[classes];
+        int distinct = 0;
+        for (int c = 0; c < classes; c++) {
+            byClass[c] = subset.and(index.classes[c]);
+            counts[c] = byClass[c].cardinality();
+            if (counts[c] > 0) order[distinct++] = c;
+        }
+
+        // Labels go into the HashMap in order of first appearance, as countLabels does
+        Arrays.sort(order, 0, distinct, Comparator.comparingInt(c -> byClass[c].first()));
+        Map<String, Integer> labelCount = new HashMap<>();
+        for (int i = 0; i < distinct; i++) {
+            labelCount.put(data.classes[order[i]], counts[order[i]]);
+        }
+        trace.subset(rows, labelCount);
+
+        if (labelCount.size() == 1) {
+            String result = labelCount.keySet().iterator().next();
+            trace.pureLeaf(result);
+            return new Node(null, result);
+        }
+        if (features.isEmpty()) {
+            String majority = majorityLabel(labelCount);
+            trace.noFeaturesLeaf(majority);
+            return new Node(null, majority);
+        }
+        BuildLimits.Stop stop = limits.stopBefore(depth, rows);
+        if (stop != null) {
+            String majority = majorityLabel(labelCount);
+            trace.limitLeaf(stop, limits, Double.NaN, majority);
+            return new Node(null, majority);
+        }
+
+        double baseEntropy = entropy(data, counts, 0, classes, rows);
+        trace.entropy(baseEntropy);
+
+        int bestFeature = -1;
+        double bestGain = -1;
+        int[] members = null;
+        for (int feature : features) {
+            RowBitmap[] values = index.values[feature];
+            double gain;
+            boolean largeEnough;
+            if (popcountPays(rows, values.length * distinct, subset.size)) {
+                int[] table = new int[values.length * classes];
+                int[] valueTotals = new int[values.length];
+                for (int value = 0; value < values.length; value++) {
+                    for (int i = 0; i < distinct; i++) {
+                        int count = values[value].andCardinality(byClass[order[i]]);
+                        table[value * classes + order[i]] = count;
+                        valueTotals[value] += count;
+                    }
+                }
+                gain = data.gainKernel != null ? GainKernel.gain(table, classes, baseEntropy)
+                        : gainFromTable(table, valueTotals, classes, rows, baseEntropy);
+                largeEnough = limits.branchesLargeEnough(valueTotals);
+            } else {
+                // Too many values for this node: one scan of its rows is cheaper
+                if (members == null) members = subset.toArray();
+                gain = informationGain(data, members, feature, baseEntropy);
+                largeEnough = limits.branchesLargeEnough(data, members, feature);
+            }
+            trace.gain(data.headers.get(feature), gain);
+            if (gain > bestGain && largeEnough) {
+                bestGain = gain;
+                bestFeature = feature;
+            }
+        }
+
+        if (bestFeature == -1) {
+            String majority = majorityLabel(labelCount);
+            if (limits.minLeaf > 1) {
+                trace.limitLeaf(BuildLimits.Stop.MIN_LEAF, limits, bestGain, majority);
+            } else {
+                trace.noGainLeaf(majority);
+            }
+            return new Node(null, majority);
+        }
+        if (bestGain < limits.minGain) {
+            String majority = majorityLabel(labelCount);
+            trace.limitLeaf(BuildLimits.Stop.MIN_GAIN, limits, bestGain, majority);
+            return new Node(null, majority);
+        }
+
+        String bestAttr = data.headers.get(bestFeature);
+        trace.split(bestAttr, bestGain);
+
+        // Children in the order splitByFeature gives them: values by first row, replayed through branchOrder
+        RowBitmap[] values = index.values[bestFeature];
+        RowBitmap[] children = new RowBitmap[values.length];
+        Integer[] present = new Integer[values.length];
+        int count = 0;
+        for (int value = 0; value < values.length; value++) {
+            children[value] = subset.and(values[value]);
+            if (children[value].size > 0) present[count++] = value;
+        }
+        Arrays.sort(present, 0, count, Comparator.comparingInt(v -> children[v].first()));
+        int[] firstSeen = new int[count];
+        for (int i = 0; i < count; i++) {
+            firstSeen[i] = present[i];
+        }
+        boolean rowsAfterLastNew = subset.last() > children[firstSeen[count - 1]].first();
+
+        Node node = new Node(bestAttr);
+        List<Integer> newFeatures = new ArrayList<>(features);
+        newFeatures.remove(Integer.valueOf(bestFeature));
+        String[] dictionary = data.dictionaries[bestFeature];
+        for (int value : branchOrder(dictionary, firstSeen, count, rowsAfterLastNew)) {
+            trace.branch(bestAttr, dictionary[value]);
+            node.children.put(dictionary[value], buildTreeBitmap(data, index, children[value], newFeatures, trace, limits, depth + 1));
+        }
+        return node;
+    }
+
+    // Intersecting costs about one pass over 1024 words per container; visiting costs one lookup per row
+    static boolean popcountPays(int rows, int intersections, int containers) {
+        return (long) intersections * containers * 1024 < rows * 4L;
+    }
+
+    // One tree of a Forest: ID3 like buildTree (without the report), except that every node scores only
+    // a random sample of sampleSize of the attributes still available
+    static Node buildRandomTree(EncodedDataset data, int[] subset, List<Integer> features, int sampleSize,
+                                Random random) {
+        Map<String, Integer> labelCount = countLabels(data, subset);
+        if (labelCount.size() == 1) {
+            return new Node(null, labelCount.keySet().iterator().next());
+        }
+        if (features.isEmpty()) {
+            return new Node(null, majorityLabel(labelCount));
+        }
+
+        // Partial Fisher-Yates shuffle: the first sampleSize entries become the sample
+        List<Integer> candidates = new ArrayList<>(features);
+        int size = Math.min(sampleSize, candidates.size());
+        for (int i = 0; i < size; i++) {
+            Collections.swap(candidates, i, i + random.nextInt(candidates.size() - i));
+        }
+
+        double baseEntropy = entropy(data, subset);
+        int bestFeature = -1;
+        double bestGain = -1;
+        for (int feature : candidates.subList(0, size)) {
+            double gain = informationGain(data, subset, feature, baseEntropy);
+            if (gain > bestGain) {
+                bestGain = gain;
+                bestFeature = feature;
+            }
+        }
+        if (bestFeature == -1) {
+            return new Node(null, majorityLabel(labelCount));
+        }
+
+        Node node = new Node(data.headers.get(bestFeature));
+        Map<String, int[]> splits = splitByFeature(data, subset, bestFeature);
+        List<Integer> newFeatures = new ArrayList<>(features);
+        newFeatures.remove(Integer.valueOf(bestFeature));
+        for (String value : splits.keySet()) {
+            node.children.put(value, buildRandomTree(data, splits.get(value), newFeatures, sampleSize, random));
+        }
+        return node;
+    }
+
+    // Attributes whose values are all numbers (null when there are none). Only these are split on thresholds
+    static boolean[] numericColumns(EncodedDataset data) {
+        boolean[] numeric = new boolean[data.featureCount()];
+        boolean any = false;
+        for (int f = 0; f < numeric.length; f++) {
+            numeric[f] = data.dictionaries[f].length > 0;
+            for (String value : data.dictionaries[f]) {
+                if (Double.isNaN(parseNumber(value))) {
+                    numeric[f] = false;
+                    break;
+                }
+            }
+            any |= numeric[f];
+        }
+        return any ? numeric : null;
+    }
+
+    // The number written in a cell, or NaN when it is not a finite number
+    static double parseNumber(String value) {
+        try {
+            double number = Double.parseDouble(value.trim());
+            return Double.isInfinite(number) ? Double.NaN : number;
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    // Shortest text that reads back as the same double, without a trailing ".0"
+    static String formatNumber(double number) {
+        String text = Double.toString(number);
+        return text.endsWith(".0") ? text.substring(0, text.length() - 2) : text;
+    }
+
+    // ID3 extended with C4.5-style binary splits on numeric attributes (same report as buildTree).
+    // Every numeric attribute is sorted once up front; each node keeps its rows in that order per numeric
+    // attribute and hands them to its children with a stable partition, so no node sorts again and a
+    // threshold search is one pass over the node's rows. Categorical attributes split as in buildTree
+    // and are then used up; numeric ones stay available and are split again with other thresholds
+    static class ThresholdTreeBuilder {
+        final EncodedDataset data;
+        final boolean[] numeric;
+        final double[][] numbers;   // Per numeric attribute: the parsed value of each dictionary id
+        final int[] branchOf;       // Scratch: branch of every row of the split being applied
+        final BuildLimits limits;
+
+        ThresholdTreeBuilder(EncodedDataset data, boolean[] numeric) {
+            this(data, numeric, BuildLimits.NONE);
+        }
+
+        ThresholdTreeBuilder(EncodedDataset data, boolean[] numeric, BuildLimits limits) {
+            this.data = data;
+            this.numeric = numeric;
+            this.limits = limits;
+            this.numbers = new double[numeric.length][];
+            for (int f = 0; f < numeric.length; f++) {
+                if (!numeric[f]) continue;
+                numbers[f] = new double[data.dictionaries[f].length];
+                for (int id = 0; id < numbers[f].length; id++) {
+                    numbers[f][id] = parseNumber(data.dictionaries[f][id]);
+                }
+            }
+            this.branchOf = new int[data.rowCount];
+        }
+
+        Node build(List<Integer> features, BuildTrace trace) {
+            int[][] sorted = new int[numeric.length][];
+            for (int f : features) {
+                if (numeric[f]) sorted[f] = presort(f);
+            }
+            return build(data.allRows(), sorted, features, trace, 0);
+        }
+
+        // Same build over some of the rows only (ascending row numbers, e.g. the training rows of a fold).
+        // The presorted orders are filtered down to those rows, so they stay in value order
+        Node build(int[] rows, List<Integer> features, BuildTrace trace) {
+            boolean[] member = new boolean[data.rowCount];
+            for (int row : rows) member[row] = true;
+            int[][] sorted = new int[numeric.length][];
+            for (int f : features) {
+                if (numeric[f]) sorted[f] = Arrays.stream(presort(f)).filter(row -> member[row]).toArray();
+            }
+            return build(rows, sorted, features, trace, 0);
+        }
+
+        // All rows in ascending order of the attribute. Only the distinct values are compared; the rows
+        // are then placed by a counting sort on the rank of their value, O(rows + values log values)
+        int[] presort(int feature) {
+            double[] number = numbers[feature];
+            Integer[] byValue = new Integer[number.length];
+            for (int id = 0; id < byValue.length; id++) byValue[id] = id;
+            Arrays.sort(byValue, (a, b) -> Double.compare(number[a], number[b]));
+            int[] rank = new int[number.length];
+            for (int i = 0; i < byValue.length; i++) rank[byValue[i]] = i;
+
+            int[] column = data.columns[feature];
+            int[] start = new int[number.length + 1];
+            for (int row = 0; row < data.rowCount; row++) start[rank[column[row]] + 1]++;
+            for (int i = 1; i < start.length; i++) start[i] += start[i - 1];
+            int[] sorted = new int[data.rowCount];
+            for (int row = 0; row < data.rowCount; row++) sorted[start[rank[column[row]]]++] = row;
+            return sorted;
+        }
+
+        // subset is in row order like in buildTree; sorted[f] holds the same rows in value order for
+        // every numeric attribute f still available
+        Node build(int[] subset, int[][] sorted, List<Integer> features, BuildTrace trace, int depth) {
+            Map<String, Integer> labelCount = countLabels(data, subset);
+            trace.subset(data.weight(subset), labelCount);
+
+            if (labelCount.size() == 1) {
+                String result = labelCount.keySet().iterator().next();
+                trace.pureLeaf(result);
+                return new Node(null, result);
+            }
+            if (features.isEmpty()) {
+                String majority = majorityLabel(labelCount);
+                trace.noFeaturesLeaf(majority);
+                return new Node(null, majority);
+            }
+            BuildLimits.Stop stop = limits.stopBefore(depth, data, subset);
+            if (stop != null) {
+                String majority = majorityLabel(labelCount);
+                trace.limitLeaf(stop, limits, Double.NaN, majority);
+                return new Node(null, majority);
+            }
+
+            double baseEntropy = entropy(data, subset);
+            trace.entropy(baseEntropy);
+
+            // A threshold only competes with a positive gain, so numeric attributes stop splitting once
+            // they no longer separate the classes
+            int bestFeature = -1;
+            double bestGain = -1;
+            double bestThreshold = Double.NaN;
+            boolean tooSmallBranches = false;   // An attribute was passed over because of --min-leaf
+            int total = data.weight(subset);
+            for (int feature : features) {
+                if (numeric[feature]) {
+                    double[] split = bestThreshold(sorted[feature], feature, baseEntropy, total);
+                    if (split == null) {
+                        trace.gain(data.headers.get(feature), 0);
+                        continue;
+                    }
+                    trace.gain(data.headers.get(feature), split[1], split[0]);
+                    if (split[0] > 0 && split[0] > bestGain) {
+                        bestGain = split[0];
+                        bestFeature = feature;
+                        bestThreshold = split[1];
+                    }
+                } else {
+                    double gain = informationGain(data, subset, feature, baseEntropy);
+                    trace.gain(data.headers.get(feature), gain);
+                    if (gain > bestGain) {
+                        if (limits.branchesLargeEnough(data, subset, feature)) {
+                            bestGain = gain;
+                            bestFeature = feature;
+                            bestThreshold = Double.NaN;
+                        } else {
+                            tooSmallBranches = true;
+                        }
+                    }
+                }
+            }
+
+            if (bestFeature == -1) {
+                String majority = majorityLabel(labelCount);
+                if (tooSmallBranches) {
+                    trace.limitLeaf(BuildLimits.Stop.MIN_LEAF, limits, bestGain, majority);
+                } else {
+                    trace.noGainLeaf(majority);
+                }
+                return new Node(null, majority);
+            }
+            if (bestGain < limits.minGain) {
+                String majority = majorityLabel(labelCount);
+                trace.limitLeaf(BuildLimits.Stop.MIN_GAIN, limits, bestGain, majority);
+                return new Node(null, majority);
+            }
+
+            String bestAttr = data.headers.get(bestFeature);
+            Node node = new Node(bestAttr);
+            List<String> keys = new ArrayList<>();
+            int[][] groups;
+            List<Integer> newFeatures = features;
+            if (Double.isNaN(bestThreshold)) {
+                trace.split(bestAttr, bestGain);
+                Map<String, int[]> splits = splitByFeature(data, subset, bestFeature);
+                keys.addAll(splits.keySet());
+                groups = splits.values().toArray(new int[0][]);
+                for (int b = 0; b < groups.length; b++) {
+                    for (int row : groups[b]) branchOf[row] = b;
+                }
+                newFeatures = new ArrayList<>(features);
+                newFeatures.remove(Integer.valueOf(bestFeature));
+            } else {
+                node.threshold = bestThreshold;
+                trace.split(bestAttr, bestThreshold, bestGain);
+                keys.add("<= " + formatNumber(bestThreshold));
+                keys.add("> " + formatNumber(bestThreshold));
+                int[] column = data.columns[bestFeature];
+                double[] number = numbers[bestFeature];
+                for (int row : subset) branchOf[row] = number[column[row]] <= bestThreshold ? 0 : 1;
+                groups = partition(subset, 2);
+            }
+
+            // Every child gets its rows in value order for each numeric attribute it may still split on
+            int[][][] childSorted = new int[groups.length][numeric.length][];
+            for (int f : newFeatures) {
+                if (!numeric[f]) continue;
+                int[][] parts = partition(sorted[f], groups.length);
+                for (int b = 0; b < groups.length; b++) childSorted[b][f] = parts[b];
+            }
+
+            for (int b = 0; b < groups.length; b++) {
+                trace.branch(bestAttr, keys.get(b));
+                node.children.put(keys.get(b), build(groups[b], childSorted[b], newFeatures, trace, depth + 1));
+            }
+            return node;
+        }
+
+        // Stable partition of rows by branchOf: the order within every branch is the order in rows
+        int[][] partition(int[] rows, int branches) {
+            int[] sizes = new int[branches];
+            for (int row : rows) sizes[branchOf[row]]++;
+            int[][] parts = new int[branches][];
+            for (int b = 0; b < branches; b++) parts[b] = new int[sizes[b]];
+            Arrays.fill(sizes, 0);
+            for (int row : rows) {
+                int b = branchOf[row];
+                parts[b][sizes[b]++] = row;
+            }
+            return parts;
+        }
+
+        // Best binary split of the node's rows (in value order) as {gain, threshold}, or null when all of
+        // them have the same value (or no cut leaves minLeaf rows on both sides). The class counts on each
+        // side are updated row by row, so every cut between two distinct values is scored in O(classes)
+        double[] bestThreshold(int[] sorted, int feature, double baseEntropy, int total) {
+            Metrics.gainEvaluated(total);
+            int classes = data.classes.length;
+            int[] labels = data.labels;
+            int[] weights = data.weights;
+            int[] column = data.columns[feature];
+            double[] number = numbers[feature];
+            int[] below = new int[classes];
+            int[] above = new int[classes];
+            for (int row : sorted) above[labels[row]] += weights == null ? 1 : weights[row];
+
+            int belowTotal = 0;
+            int bestCut = -1;
+            double bestGain = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < sorted.length - 1; i++) {
+                int row = sorted[i];
+                int weight = weights == null ? 1 : weights[row];
+                below[labels[row]] += weight;
+                above[labels[row]] -= weight;
+                belowTotal += weight;
+                if (number[column[row]] == number[column[sorted[i + 1]]]) continue;
+
+                int aboveTotal = total - belowTotal;
+                if (belowTotal < limits.minLeaf || aboveTotal < limits.minLeaf) continue;
+                double gain = baseEntropy
+                        - (double) belowTotal / total * entropy(data, below, 0, classes, belowTotal)
+                        - (double) aboveTotal / total * entropy(data, above, 0, classes, aboveTotal);
+                if (gain > bestGain) {
+                    bestGain = gain;
+                    bestCut = i;
+                }
+            }
+            // Like C4.5 the threshold is the largest value below the cut, so it is always a value from the data
+            return bestCut < 0 ? null : new double[]{bestGain, number[column[sorted[bestCut]]]};
+        }
+    }
+
+    // Calculate entropy of a dataset
+    static double entropy(EncodedDataset data, int[] subset) {
+        int[] counts = new int[data.classes.length];
+        int[] weights = data.weights;
+        for (int row : subset) {
+            counts[data.labels[row]] += weights == null ? 1 : weights[row];
+        }
+        return entropy(data, counts, 0, counts.length, data.weight(subset));
+    }
+
+    // Entropy of one row of a count table over this dataset's rows; with a gain kernel it comes from the
+    // n log2 n table, like the gains the kernel computes
+    static double entropy(EncodedDataset data, int[] counts, int offset, int length, int total) {
+        if (data.gainKernel != null) return GainKernel.entropy(counts, offset, length, total);
+        return entropy(counts, offset, length, total);
+    }
+
+    // Entropy of one row of a count table: counts[offset..offset+length) holds the class counts of total rows
+    static double entropy(int[] counts, int offset, int length, int total) {
+        double entropy = 0;
+
+        // Compute entropy formula: -sum(p * log2(p))
+        for (int i = offset; i < offset + length; i++) {
+            if (counts[i] == 0) continue;
+            double p = (double) counts[i] / total;
+            entropy -= p * (Math.log(p) / Math.log(2)); // Negative point calculated her!
+        }
+        return entropy;
+    }
+
+    // Calculate information gain of splitting on a feature
+    // One scan fills a value x class contingency table; the gain is computed from the counts alone,
+    // so scoring a feature that loses never builds the row groups
+    static double informationGain(EncodedDataset data, int[] subset, int feature, double baseEntropy) {
+        if (data.gainKernel != null) {
+            return GainKernel.informationGain(data, subset, feature, baseEntropy, data.gainKernel);
+        }
+        int[] column = data.columns[feature];
+        int[] labels = data.labels;
+        int classes = data.classes.length;
+        int values = data.dictionaries[feature].length;
+        int[] weights = data.weights;
+        int[] table = new int[values * classes];
+        int[] valueTotals = new int[values];
+        for (int row : subset) {
+            int weight = weights == null ? 1 : weights[row];
+            table[column[row] * classes + labels[row]] += weight;
+            valueTotals[column[row]] += weight;
+        }
+
+        return gainFromTable(table, valueTotals, classes, data.weight(subset), baseEntropy);
+    }
+
+    // Information gain from a value x class count table (table[value * classes + class]) of total rows
+    static double gainFromTable(int[] table, int[] valueTotals, int classes, int total, double baseEntropy) {
+        Metrics.gainEvaluated(total);
+        double newEntropy = 0;
+
+        // Calculate weighted entropy after split using classic for loop
+        for (int value = 0; value < valueTotals.length; value++) {
+            if (valueTotals[value] == 0) continue;
+            double weight = (double) valueTotals[value] / total;
+            newEntropy += weight * entropy(table, value * classes, classes, valueTotals[value]);
+        }
+        return baseEntropy - newEntropy;
+    }
+
+    // Histogram of one packed key column over a node's rows: counts[key] += 1 for every row, or += the
+    // row's weight in the weighted forms. The rows may come in any order and a row given twice is counted
+    // twice; a key is value * classes + label, read as unsigned
+    interface CountKernel {
+        void count(byte[] keys, int keyCount, int[] rows, int[] counts);
+
+        void count(byte[] keys, int keyCount, int[] rows, int[] weights, int[] counts);
+
+        void count(short[] keys, int keyCount, int[] rows, int[] counts);
+
+        void count(short[] keys, int keyCount, int[] rows, int[] weights, int[] counts);
+
+        // False when counting keyCount keys with row weights up to maxWeight comes down to the plain
+        // increments; GainKernel reports such attributes, so the kernel is never bypassed silently
+        default boolean accelerates(int keyCount, int maxWeight) {
+            return true;
+        }
+    }
+
+    static class ScalarCountKernel implements CountKernel {
+        @Override
+        public void count(byte[] keys, int keyCount, int[] rows, int[] counts) {
+            for (int row : rows) {
+                counts[keys[row] & 0xFF]++;
+            }
+        }
+
+        @Override
+        public void count(byte[] keys, int keyCount, int[] rows, int[] weights, int[] counts) {
+            for (int row : rows) {
+                counts[keys[row] & 0xFF] += weights[row];
+            }
+        }
+
+        @Override
+        public void count(short[] keys, int keyCount, int[] rows, int[] counts) {
+            for (int row : rows) {
+                counts[keys[row] & 0xFFFF]++;
+            }
+        }
+
+        @Override
+        public void count(short[] keys, int keyCount, int[] rows, int[] weights, int[] counts) {
+            for (int row : rows) {
+                counts[keys[row] & 0xFFFF] += weights[row];
+            }
+        }
+    }
+
+    // Each attribute's value and the row's class packed into one key per row (value * classes + label):
+    // a byte when there are at most 256 keys, a short up to 65536, otherwise not packed. Counting a node
+    // for an attribute then reads one narrow column instead of the attribute and the label columns. The
+    // keys only depend on the columns and labels, so datasets that differ only in weights share them
+    static class PackedKeys {
+        final byte[][] bytes;
+        final short[][] shorts;
+
+        PackedKeys(EncodedDataset data) {
+            int classes = data.classes.length;
+            bytes = new byte[data.featureCount()][];
+            shorts = new short[data.featureCount()][];
+            for (int f = 0; f < bytes.length; f++) {
+                int keys = data.dictionaries[f].length * classes;
+                int[] column = data.columns[f];
+                if (keys <= 1 << 8) {
+                    bytes[f] = new byte[data.rowCount];
+                    for (int row = 0; row < data.rowCount; row++) bytes[f][row] = (byte) (column[row] * classes + data.labels[row]);
+                } else if (keys <= 1 << 16) {
+                    shorts[f] = new short[data.rowCount];
+                    for (int row = 0; row < data.rowCount; row++) shorts[f][row] = (short) (column[row] * classes + data.labels[row]);
+                }
+            }
+        }
+    }
+
+    // Split scoring from packed keys (--gain-kernel=scalar|vector). The counts come from a CountKernel and
+    // the entropies from a table of n * log2(n), using H = (N log2 N - sum of n log2 n) / N, so no division
+    // or logarithm is computed per class. The gains equal those of informationGain up to rounding, so a
+    // tie between two attributes can be broken differently; that is why this is not the default
+    static class GainKernel {
+        static final int TABLE_SIZE = 1 << 16;
+        static final double[] NLOG2N = new double[TABLE_SIZE];
+
+        static {
+            for (int n = 1; n < TABLE_SIZE; n++) NLOG2N[n] = n * (Math.log(n) / Math.log(2));
+        }
+
+        // The kernel chosen with --gain-kernel=scalar|vector, or null (the plain informationGain) without it
+        static CountKernel fromArgs(String[] args) {
+            String name = option(args, "--gain-kernel");
+            if (name == null) return null;
+            CountKernel kernel = load(name);
+            if (kernel == null) {
+                System.out.println("⚠️ The vector kernel needs DecisionTreeVectorKernel on the class path and "
+                        + "--add-modules jdk.incubator.vector; using the scalar kernel");
+                kernel = new ScalarCountKernel();
+            }
+            return kernel;
+        }
+
+        // Warns about the attributes whose splits the kernel does not speed up on this dataset: those with
+        // too many keys to pack, and those the kernel itself counts with plain increments
+        static void report(EncodedDataset data, CountKernel kernel) {
+            int unpacked = 0;
+            int plain = 0;
+            for (int f = 0; f < data.featureCount(); f++) {
+                int keys = data.dictionaries[f].length * data.classes.length;
+                if (keys > 1 << 16) {
+                    unpacked++;
+                } else if (!kernel.accelerates(keys, data.maxWeight())) {
+                    plain++;
+                }
+            }
+            if (unpacked > 0) {
+                System.out.printf("⚠️ --gain-kernel: %d of %d attributes have more than 65536 value and class "
+                        + "combinations, so their splits are scored without the kernel\n", unpacked, data.featureCount());
+            }
+            if (plain > 0) {
+                String why = data.unitWeights() ? "more value and class combinations than the kernel speeds up"
+                        : "weighted rows (up to " + data.maxWeight() + ") or more value and class combinations than the kernel speeds up";
+                System.out.printf("⚠️ --gain-kernel: %d of %d attributes have %s; they are counted with plain increments\n",
+                        plain, data.featureCount(), why);
+            }
+        }
+
+        // The Vector API kernel lives in its own source file, since jdk.incubator.vector must be added to
+        // both javac and java explicitly; it is looked up by name, so this file builds without it
+        static CountKernel load(String name) {
+            if (name.equals("scalar")) return new ScalarCountKernel();
+            if (!name.equals("vector")) throw new IllegalArgumentException("Unknown gain kernel: " + name + " (expected scalar or vector)");
+            try {
+                return (CountKernel) Class.forName("DecisionTreeVectorKernel").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return null;
+            }
+        }
+
+        static double nlog2n(int n) {
+            return n < TABLE_SIZE ? NLOG2N[n] : n * (Math.log(n) / Math.log(2));
+        }
+
+        // H = (N log2 N - sum of n log2 n) / N, with no division or logarithm per class
+        static double entropy(int[] counts, int offset, int length, int total) {
+            if (total == 0) return 0;
+            double sum = 0;
+            for (int i = offset; i < offset + length; i++) sum += nlog2n(counts[i]);
+            return (nlog2n(total) - sum) / total;
+        }
+
+        static double informationGain(EncodedDataset data, int[] subset, int feature, double baseEntropy,
+                                      CountKernel kernel) {
+            PackedKeys packed = data.packedKeys();
+            int classes = data.classes.length;
+            int[] counts = new int[data.dictionaries[feature].length * classes];
+            byte[] bytes = packed.bytes[feature];
+            short[] shorts = packed.shorts[feature];
+            int[] weights = data.unitWeights() ? null : data.weights;
+            if (bytes != null && weights == null) {
+                kernel.count(bytes, counts.length, subset, counts);
+            } else if (bytes != null) {
+                kernel.count(bytes, counts.length, subset, weights, counts);
+            } else if (shorts != null && weights == null) {
+                kernel.count(shorts, counts.length, subset, counts);
+            } else if (shorts != null) {
+                kernel.count(shorts, counts.length, subset, weights, counts);
+            } else {
+                // Too many keys to pack (reported by GainKernel.report)
+                int[] column = data.columns[feature];
+                for (int row : subset) counts[column[row] * classes + data.labels[row]] += weights == null ? 1 : weights[row];
+            }
+
+            return gain(counts, classes, baseEntropy);
+        }
+
+        // Gain from a value x class count table (counts[value * classes + class]), as gainFromTable computes it
+        static double gain(int[] counts, int classes, double baseEntropy) {
+            // Split entropy times the node's rows: the sum over values of N_v log2 N_v - sum of n log2 n
+            int total = 0;
+            double split = 0;
+            for (int base = 0; base < counts.length; base += classes) {
+                int valueTotal = 0;
+                for (int c = base; c < base + classes; c++) {
+                    valueTotal += counts[c];
+                    split -= nlog2n(counts[c]);
+                }
+                total += valueTotal;
+                split += nlog2n(valueTotal);
+            }
+            Metrics.gainEvaluated(total);
+            return Math.max(0, baseEntropy - split / total);   // Not below zero through rounding
+        }
+    }
+
+    // Split dataset based on the values of a feature
+    // Rows are bucketed by dictionary id; only the distinct values are hashed (to keep the branch order)
+    static Map<String, int[]> splitByFeature(EncodedDataset data, int[] subset, int feature) {
+        int[] column = data.columns[feature];
+        int[] sizes = new int[data.dictionaries[feature].length];
+        int[] order = new int[sizes.length];
+        int distinct = 0;
+        int lastNewRow = -1;
+        for (int i = 0; i < subset.length; i++) {
+            if (sizes[column[subset[i]]]++ == 0) {
+                order[distinct++] = column[subset[i]];
+                lastNewRow = i;
+            }
+        }
+
+        int[][] groups = new int[sizes.length][];
+        for (int i = 0; i < distinct; i++) {
+            groups[order[i]] = new int[sizes[order[i]]];
+            sizes[order[i]] = 0;
+        }
+        for (int row : subset) {
+            int value = column[row];
+            groups[value][sizes[value]++] = row;
+        }
+
+        // Were there rows after the first appearance of the last new value? For collapsed rows this is
+        // answered with the original row numbers each weighted row stands for
+        boolean rowsAfterLastNew = lastNewRow < subset.length - 1;
+        if (data.lastRow != null && lastNewRow >= 0) {
+            int lastNewOriginal = data.firstRow[subset[lastNewRow]];
+            rowsAfterLastNew = false;
+            for (int row : subset) {
+                if (data.lastRow[row] > lastNewOriginal) {
+                    rowsAfterLastNew = true;
+                    break;
+                }
+            }
+        }
+
+        Map<String, int[]> splits = new LinkedHashMap<>();
+        for (int value : branchOrder(data.dictionaries[feature], order, distinct, rowsAfterLastNew)) {
+            splits.put(data.dictionaries[feature][value], groups[value]);
+        }
+        return splits;
+    }
+
+    // Branches are created in the iteration order of the HashMap that the row-based splitter filled with
+    // computeIfAbsent (one call per row). Replaying one call per distinct value, plus one more call when rows
+    // followed the last new value, gives the same buckets and resize points, so the tree output is unchanged.
+    static int[] branchOrder(String[] dictionary, int[] firstSeen, int distinct, boolean rowsAfterLastNew) {
+        Map<String, Integer> replay = new HashMap<>();
+        for (int i = 0; i < distinct; i++) {
+            int id = firstSeen[i];
+            replay.computeIfAbsent(dictionary[id], k -> id);
+        }
+        if (rowsAfterLastNew && distinct > 0) {
+            replay.computeIfAbsent(dictionary[firstSeen[0]], k -> firstSeen[0]);
+        }
+
+        int[] order = new int[distinct];
+        int i = 0;
+        for (int id : replay.values()) {
+            order[i++] = id;
+        }
+        return order;
+    }
+
+    // Count the frequency of each label in the dataset
+    static Map<String, Integer> countLabels(EncodedDataset data, int[] subset) {
+        int[] counts = new int[data.classes.length];
+        int[] order = new int[counts.length];
+        int[] weights = data.weights;
+        int distinct = 0;
+        for (int row : subset) {
+            int label = data.labels[row]; // Output column (last)
+            if (counts[label] == 0) {
+                order[distinct++] = label;
+            }
+            counts[label] += weights == null ? 1 : weights[row];
+        }
+
+        Map<String, Integer> count = new HashMap<>();
+        for (int i = 0; i < distinct; i++) {
+            count.put(data.classes[order[i]], counts[order[i]]);
+        }
+        return count;
+    }
+
+    // Return the most common label (majority class)
+    static String majorityLabel(Map<String, Integer> labelCount) {
+        return labelCount.entrySet().stream().max(Map.Entry.comparingByValue()).get().getKey();
+    }
+
+    // Improved tree printer with clean branching visuals
+    static void printTree2(Node node, String prefix, boolean isLast) {
+        if (node.isLeaf()) {
+            System.out.println(prefix + (isLast ? "└── " : "├── ") + "--> " + node.label);
+            return;
+        }
+
+        if (!prefix.isEmpty()) {
+            System.out.println(prefix + (isLast ? "└── " : "├── ") + node.attribute);
+        } else {
+            // Root node
+            System.out.println(node.attribute);
+        }
+
+        List<Map.Entry<String, Node>> entries = new ArrayList<>(node.children.entrySet());
+        for (int i = 0; i < entries.size(); i++) {
+            String value = entries.get(i).getKey();
+            Node child = entries.get(i).getValue();
+            boolean childIsLast = (i == entries.size() - 1);
+
+            if (child.isLeaf()) {
+                System.out.println(prefix + (isLast ? "    " : "│   ") + (childIsLast ? "└── " : "├── ") + value + " --> " + child.label);
+            } else {
+                System.out.println(prefix + (isLast ? "    " : "│   ") + (childIsLast ? "└── " : "├── ") + value);
+                printTree2(child, prefix + (isLast ? "    " : "│   ") + (childIsLast ? "    " : "│   "), true);
+            }
+        }
+    }
+
+    // Predict the answer; the chosen branches are added to path when it is not null
+    static String predict(Node node, List<String> headers, List<String> input, List<String> path) {
+        long start = Metrics.start();
+        String label = follow(node, headers, input, path);
+        Metrics.predicted(start, label);
+        return label;
+    }
+
+    static String follow(Node node, List<String> headers, List<String> input, List<String> path) {
+        while (!node.isLeaf()) {
+            // Find which attribute this node tests
+            String attribute = node.attribute;
+
+            // Find the index of this attribute in the input
+            int index = headers.indexOf(attribute);
+            if (index == -1) return "Unknown"; // Attribute not found
+
+            // Numeric test: the first branch takes the values up to the threshold, the second the rest
+            if (node.isNumeric()) {
+                double number = parseNumber(input.get(index));
+                if (Double.isNaN(number)) return "Unknown";
+                List<String> keys = new ArrayList<>(node.children.keySet());
+                String key = keys.get(number <= node.threshold ? 0 : 1);
+                if (path != null) path.add(attribute + "=" + key);
+                node = node.children.get(key);
+                continue;
+            }
+
+            // Normalize input value
+            String value = input.get(index).trim().toLowerCase();
+
+            // Now search for a matching child key manually
+            boolean found = false;
+            for (String key : node.children.keySet()) {
+                if (key.trim().toLowerCase().equals(value)) {
+                    // Add attribute=value to chosen path
+                    if (path != null) path.add(attribute + "=" + key);
+                    node = node.children.get(key);
+                    found = true;
+                    break;
+                }
+            }
+
+            if (!found) return "Unknown";
+        }
+
+        // Return the final label at the leaf node
+        return node.label;
+    }
+
+    // Receives the steps of buildTree. The builder only passes the values it already has, so a trace
+    // that ignores them (NONE) costs nothing; formatting is left to the implementations
+    interface BuildTrace {
+        BuildTrace NONE = new BuildTrace() {
+        };
+
+        default void subset(int records, Map<String, Integer> classDistribution) {
+        }
+
+        default void pureLeaf(String label) {
+        }
+
+        default void noFeaturesLeaf(String majority) {
+        }
+
+        default void entropy(double entropy) {
+        }
+
+        default void gain(String attribute, double gain) {
+        }
+
+        // Gain of the best "attribute <= threshold" test of a numeric attribute
+        default void gain(String attribute, double threshold, double gain) {
+        }
+
+        default void noGainLeaf(String majority) {
+        }
+
+        // A pre-pruning limit (BuildLimits) stopped the build at this node; gain is the node's best gain
+        default void limitLeaf(BuildLimits.Stop stop, BuildLimits limits, double gain, String majority) {
+        }
+
+        default void split(String attribute, double gain) {
+        }
+
+        default void split(String attribute, double threshold, double gain) {
+        }
+
+        default void branch(String attribute, String value) {
+        }
+
+        // Trace selected on the command line: none, console, file:<path> or json:<path>
+        static BuildTrace fromOption(String option) throws IOException {
+            if (option.equals("none")) {
+                return NONE;
+            } else if (option.equals("console")) {
+                return new ConsoleTrace(System.out);
+            } else if (option.startsWith("file:")) {
+                return new ConsoleTrace(new PrintStream(new BufferedOutputStream(
+                        new FileOutputStream(option.substring(5)), 1 << 16), false, "UTF-8"));
+            } else if (option.startsWith("json:")) {
+                return new JsonLinesTrace(new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(option.substring(5)), StandardCharsets.UTF_8), 1 << 16));
+            }
+            throw new IllegalArgumentException("Unknown trace: " + option + " (use none, console, file:<path> or json:<path>)");
+        }
+
+        // Flushes and releases the underlying output (the console is only flushed)
+        default void close() throws IOException {
+        }
+    }
+
+    // The human-readable step-wise report; on System.out this is the classic console output,
+    // on a buffered file stream it writes the same text to a file
+    static class ConsoleTrace implements BuildTrace {
+        final PrintStream out;
+
+        ConsoleTrace(PrintStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void subset(int records, Map<String, Integer> classDistribution) {
+            out.println("\n==============================");
+            out.println("📦 Step: Examining Subset (" + records + " records)");
+            out.println("Class Distribution:");
+            classDistribution.forEach((label, count) -> out.println(" - " + label + ": " + count));
+        }
+
+        @Override
+        public void pureLeaf(String label) {
+            out.println("✅ Pure subset. Creating Leaf Node: " + label);
+        }
+
+        @Override
+        public void noFeaturesLeaf(String majority) {
+            out.println("⚠️ No remaining features. Creating Leaf Node with Majority Class: " + majority);
+        }
+
+        @Override
+        public void entropy(double entropy) {
+            out.println("\nStep 1: Entropy of Current Subset");
+            out.println("Entropy(S) = " + String.format("%.4f", entropy));
+            out.println("\nStep 2: Information Gain for Each Feature");
+        }
+
+        @Override
+        public void gain(String attribute, double gain) {
+            out.printf(" - %s: Gain = %.4f\n", attribute, gain);
+        }
+
+        @Override
+        public void gain(String attribute, double threshold, double gain) {
+            gain(attribute + " <= " + formatNumber(threshold), gain);
+        }
+
+        @Override
+        public void noGainLeaf(String majority) {
+            out.println("⚠️ No feature improves entropy. Creating Leaf Node with Majority Class: " + majority);
+        }
+
+        @Override
+        public void limitLeaf(BuildLimits.Stop stop, BuildLimits limits, double gain, String majority) {
+            out.println("✂️ Stopping early (" + stop.reason(limits, gain) + "). Creating Leaf Node with Majority Class: " + majority);
+        }
+
+        @Override
+        public void split(String attribute, double gain) {
+            out.println("\nStep 3: Best Feature to Split: " + attribute);
+            out.println("→ Splitting on: " + attribute + " (Gain = " + String.format("%.4f", gain) + ")");
+        }
+
+        @Override
+        public void split(String attribute, double threshold, double gain) {
+            split(attribute + " <= " + formatNumber(threshold), gain);
+        }
+
+        @Override
+        public void branch(String attribute, String value) {
+            out.println("\n🔸 Creating Branch: " + attribute + " = " + value);
+        }
+
+        @Override
+        public void close() {
+            if (out == System.out) {
+                out.flush();
+            } else {
+                out.close();
+            }
+        }
+    }
+
+    // One JSON object per step, for audits that are processed by tools rather than read
+    static class JsonLinesTrace implements BuildTrace {
+        final Writer out;
+
+        JsonLinesTrace(Writer out) {
+            this.out = out;
+        }
+
+        private void write(String line) {
+            try {
+                out.write(line);
+                out.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void subset(int records, Map<String, Integer> classDistribution) {
+            StringBuilder classes = new StringBuilder();
+            classDistribution.forEach((label, count) -> classes.append(classes.length() == 0 ? "" : ",")
+                    .append(jsonString(label)).append(':').append(count));
+            write("{\"event\":\"subset\",\"records\":" + records + ",\"classes\":{" + classes + "}}");
+        }
+
+        @Override
+        public void pureLeaf(String label) {
+            write("{\"event\":\"leaf\",\"reason\":\"pure\",\"label\":" + jsonString(label) + "}");
+        }
+
+        @Override
+        public void noFeaturesLeaf(String majority) {
+            write("{\"event\":\"leaf\",\"reason\":\"no_features\",\"label\":" + jsonString(majority) + "}");
+        }
+
+        @Override
+        public void entropy(double entropy) {
+            write("{\"event\":\"entropy\",\"value\":" + entropy + "}");
+        }
+
+        @Override
+        public void gain(String attribute, double gain) {
+            write("{\"event\":\"gain\",\"attribute\":" + jsonString(attribute) + ",\"value\":" + gain + "}");
+        }
+
+        @Override
+        public void gain(String attribute, double threshold, double gain) {
+            gain(attribute + " <= " + formatNumber(threshold), gain);
+        }
+
+        @Override
+        public void noGainLeaf(String majority) {
+            write("{\"event\":\"leaf\",\"reason\":\"no_gain\",\"label\":" + jsonString(majority) + "}");
+        }
+
+        @Override
+        public void limitLeaf(BuildLimits.Stop stop, BuildLimits limits, double gain, String majority) {
+            write("{\"event\":\"leaf\",\"reason\":\"limit\",\"limit\":" + jsonString(stop.reason(limits, gain)) + ",\"label\":"
+                    + jsonString(majority) + "}");
+        }
+
+        @Override
+        public void split(String attribute, double gain) {
+            write("{\"event\":\"split\",\"attribute\":" + jsonString(attribute) + ",\"gain\":" + gain + "}");
+        }
+
+        @Override
+        public void split(String attribute, double threshold, double gain) {
+            split(attribute + " <= " + formatNumber(threshold), gain);
+        }
+
+        @Override
+        public void branch(String attribute, String value) {
+            write("{\"event\":\"branch\",\"attribute\":" + jsonString(attribute) + ",\"value\":" + jsonString(value) + "}");
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    // Quotes and escapes a string for JSON output
+    static String jsonString(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    // Incremental ID3 for unbounded streams (Hoeffding tree). Each leaf keeps class counts and, for the
+    // attributes not yet used on its path, value x class counts. Every gracePeriod rows a leaf scores its
+    // attributes with the informationGain formula and splits once the Hoeffding bound says the best
+    // attribute would still be best with probability 1 - delta. Only leaves hold counts, so memory
+    // depends on the size of the tree, not on the number of rows seen
+    static class HoeffdingTree {
+        final List<String> headers;
+        final int featureCount;
+        final ValueDictionary[] values;
+        final ValueDictionary classes = new ValueDictionary();
+        final int gracePeriod;
+        final double delta;
+        final double tieThreshold;
+        final LearningNode root;
+        long rows;
+        int nodeCount = 1;
+        int leafCount = 1;
+
+        static class LearningNode {
+            int attribute = -1;                 // Tested attribute once split, -1 while learning
+            final List<LearningNode> children = new ArrayList<>(); // By value id of the attribute
+            final boolean[] used;               // Attributes already tested on the path to this node
+            int[] classCounts = new int[0];
+            int[][][] counts;                   // counts[attribute][value][class], null after the split
+            final int[] prior;                  // Class counts the parent saw for this branch
+            int seen;
+            int seenAtLastCheck;
+
+            LearningNode(boolean[] used, int[] prior) {
+                this.used = used;
+                this.prior = prior;
+                counts = new int[used.length][][];
+                for (int a = 0; a < used.length; a++) {
+                    if (!used[a]) counts[a] = new int[0][];
+                }
+            }
+
+            boolean isLeaf() {
+                return attribute < 0;
+            }
+        }
+
+        HoeffdingTree(List<String> headers, int gracePeriod, double delta, double tieThreshold) {
+            this.headers = headers;
+            this.featureCount = headers.size() - 1;
+            this.gracePeriod = gracePeriod;
+            this.delta = delta;
+            this.tieThreshold = tieThreshold;
+            values = new ValueDictionary[featureCount];
+            for (int f = 0; f < featureCount; f++) {
+                values[f] = new ValueDictionary();
+            }
+            root = new LearningNode(new boolean[featureCount], new int[0]);
+        }
+
+        // One row of the stream: feature i is cell i, the label is the last cell (like the file loader)
+        void learn(String[] row) {
+            int label = classes.encode(row[row.length - 1]);
+            int[] ids = new int[featureCount];
+            for (int f = 0; f < featureCount; f++) {
+                ids[f] = values[f].encode(f < row.length ? row[f] : "");
+            }
+            rows++;
+
+            LearningNode node = root;
+            while (!node.isLeaf()) {
+                int value = ids[node.attribute];
+                while (node.children.size() <= value) node.children.add(null);
+                LearningNode child = node.children.get(value);
+                if (child == null) { // A value first seen after the split gets its own leaf
+                    child = new LearningNode(childUsed(node), new int[0]);
+                    node.children.set(value, child);
+                    nodeCount++;
+                    leafCount++;
+                }
+                node = child;
+            }
+
+            node.classCounts = increment(node.classCounts, label);
+            for (int a = 0; a < featureCount; a++) {
+                if (node.counts[a] == null) continue;
+                if (node.counts[a].length <= ids[a]) {
+                    node.counts[a] = Arrays.copyOf(node.counts[a], Math.max(ids[a] + 1, node.counts[a].length * 2));
+                }
+                node.counts[a][ids[a]] = increment(node.counts[a][ids[a]], label);
+            }
+            node.seen++;
+            if (node.seen - node.seenAtLastCheck >= gracePeriod) {
+                node.seenAtLastCheck = node.seen;
+                attemptSplit(node);
+            }
+        }
+
+        static int[] increment(int[] counts, int label) {
+            if (counts == null) counts = new int[label + 1];
+            if (counts.length <= label) counts = Arrays.copyOf(counts, label + 1);
+            counts[label]++;
+            return counts;
+        }
+
+        boolean[] childUsed(LearningNode node) {
+            boolean[] used = node.used.clone();
+            used[node.attribute] = true;
+            return used;
+        }
+
+        void attemptSplit(LearningNode node) {
+            int nonZero = 0;
+            for (int count : node.classCounts) {
+                if (count > 0) nonZero++;
+            }
+            if (nonZero < 2) return; // Pure leaf
+
+            // Same gain as informationGain: entropy of the leaf minus the weighted entropy of the branches
+            double baseEntropy = entropy(node.classCounts, 0, node.classCounts.length, node.seen);
+            int best = -1;
+            double bestGain = 0;
+            double secondGain = 0;
+            for (int a = 0; a < featureCount; a++) {
+                if (node.counts[a] == null) continue;
+                double newEntropy = 0;
+                for (int[] valueCounts : node.counts[a]) {
+                    if (valueCounts == null) continue;
+                    int total = 0;
+                    for (int count : valueCounts) total += count;
+                    if (total == 0) continue;
+                    newEntropy += (double) total / node.seen * entropy(valueCounts, 0, valueCounts.length, total);
+                }
+                double gain = baseEntropy - newEntropy;
+                if (best < 0 || gain > bestGain) {
+                    secondGain = best < 0 ? 0 : bestGain;
+                    bestGain = gain;
+                    best = a;
+                } else if (gain > secondGain) {
+                    secondGain = gain;
+                }
+            }
+            if (best < 0 || bestGain <= 0) return;
+
+            // Hoeffding bound for a quantity with range log2(#classes)
+            double range = Math.log(Math.max(classes.values.size(), 2)) / Math.log(2);
+            double epsilon = Math.sqrt(range * range * Math.log(1 / delta) / (2.0 * node.seen));
+            if (bestGain - secondGain > epsilon || epsilon < tieThreshold) {
+                split(node, best);
+            }
+        }
+
+        void split(LearningNode node, int attribute) {
+            node.attribute = attribute;
+            boolean[] used = childUsed(node);
+            int[][] branchCounts = node.counts[attribute];
+            for (int value = 0; value < branchCounts.length; value++) {
+                if (branchCounts[value] == null) {
+                    node.children.add(null);
+                    continue;
+                }
+                node.children.add(new LearningNode(used, branchCounts[value]));
+                nodeCount++;
+                leafCount++;
+            }
+            leafCount--;
+            node.counts = null; // Internal nodes only keep their class counts
+        }
+
+        // Current model as a Node tree, usable by printTree2, predict and the DOT export
+        Node toNode() {
+            return toNode(root, root.classCounts);
+        }
+
+        private Node toNode(LearningNode node, int[] fallback) {
+            int[] counts = node.seen > 0 ? node.classCounts : node.prior.length > 0 ? node.prior : fallback;
+            if (node.isLeaf()) {
+                return new Node(null, classes.values.isEmpty() ? "Unknown" : classes.values.get(majority(counts)));
+            }
+            Node result = new Node(headers.get(node.attribute));
+            for (int value = 0; value < node.children.size(); value++) {
+                LearningNode child = node.children.get(value);
+                if (child != null) {
+                    result.children.put(values[node.attribute].values.get(value), toNode(child, counts));
+                }
+            }
+            return result;
+        }
+
+        static int majority(int[] counts) {
+            int best = 0;
+            for (int i = 1; i < counts.length; i++) {
+                if (counts[i] > counts[best]) best = i;
+            }
+            return best;
+        }
+
+        CompiledTree compile(Node root) {
+            String[][] dictionaries = new String[featureCount][];
+            for (int f = 0; f < featureCount; f++) {
+                dictionaries[f] = values[f].toArray();
+            }
+            return CompiledTree.compile(root, headers, dictionaries, classes.toArray());
+        }
+    }
+
+    // A trained tree and everything needed to answer with it. Nothing in it changes after construction
+    // and every prediction returns its own result, so one model can serve any number of threads at once
+    // (and several models can live in one JVM)
+    static class Model {
+        final Node root;                                   // For printing and the DOT export; never modified
+        final CompiledTree compiled;
+        final List<String> headers;
+        final Map<String, Set<String>> attributeValues;    // Trimmed values per attribute, as shown in prompts
+
+        Model(Node root, EncodedDataset data) {
+            this(root, CompiledTree.compile(root, data));
+        }
+
+        Model(CompiledTree compiled) {
+            this(compiled.toNode(), compiled);
+        }
+
+        Model(Node root, CompiledTree compiled) {
+            this.root = root;
+            this.compiled = compiled;
+            this.headers = Collections.unmodifiableList(new ArrayList<>(compiled.headers));
+            Map<String, Set<String>> values = new HashMap<>();
+            for (Map.Entry<String, Set<String>> entry : compiled.attributeValues().entrySet()) {
+                values.put(entry.getKey(), Collections.unmodifiableSet(entry.getValue()));
+            }
+            this.attributeValues = Collections.unmodifiableMap(values);
+        }
+
+        Prediction predict(List<String> input) {
+            List<String> path = new ArrayList<>();
+            String label = compiled.predict(input, path);
+            return new Prediction(label, Collections.unmodifiableList(path));
+        }
+
+        String predictLabel(List<String> input) {
+            return compiled.predict(input, null);
+        }
+    }
+
+    // The answer for one input row and the branches (attribute=value) that led to it
+    static class Prediction {
+        final String label;
+        final List<String> path;
+
+        Prediction(String label, List<String> path) {
+            this.label = label;
+            this.path = path;
+        }
+    }
+
+    // What BatchScorer needs from a model: its attribute and class names, the value ids used to encode
+    // input cells, and batch prediction over encoded columns (class ids, -1 for Unknown)
+    interface Scorer {
+        List<String> headers();
+
+        String[] classes();
+
+        int valueId(int feature, String value);
+
+        int featureCount();
+
+        void predictBatch(int[][] columns, int from, int to, int[] out);
+    }
+
+    // Bagged ensemble of ID3 trees. Every tree sees a bootstrap sample of the shared dataset, given as
+    // per-row weights (how often each row was drawn) so no row is ever copied, and scores only a random
+    // sample of the attributes at each node. All trees are compiled against the same dictionaries, so an
+    // input row is encoded once and the trees vote on class ids
+    static class Forest implements Scorer {
+        static final int BLOCK = 256; // Rows scored per tree before moving to the next tree
+
+        final CompiledTree[] trees;
+        final int sampleSize;
+        double outOfBagAccuracy;      // Majority vote of the trees that did not see a row
+        double treeOutOfBagAccuracy;  // Average of the trees on their own out-of-bag rows
+
+        Forest(CompiledTree[] trees, int sampleSize) {
+            this.trees = trees;
+            this.sampleSize = sampleSize;
+        }
+
+        // Trains the trees in parallel on the common pool; tree i uses the seed seed + i, so the forest
+        // does not depend on the number of threads
+        static Forest train(EncodedDataset data, int treeCount, int sampleSize, long seed) {
+            CompiledTree[] trees = new CompiledTree[treeCount];
+            BitSet[] inBag = new BitSet[treeCount];
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (int t = 0; t < treeCount; t++) {
+                int tree = t;
+                tasks.add(ForkJoinTask.adapt(() -> {
+                    Random random = new Random(seed + tree);
+                    int[] weights = bootstrap(data, random);
+                    EncodedDataset sample = data.withWeights(weights);
+                    int[] subset = IntStream.range(0, data.rowCount).filter(row -> weights[row] > 0).toArray();
+                    List<Integer> features = new ArrayList<>();
+                    for (int i = 0; i < data.featureCount(); i++) {
+                        features.add(i);
+                    }
+                    Node root = buildRandomTree(sample, subset, features, sampleSize, random);
+                    trees[tree] = CompiledTree.compile(root, data);
+                    inBag[tree] = new BitSet(data.rowCount);
+                    for (int row : subset) inBag[tree].set(row);
+                }));
+            }
+            ForkJoinTask.invokeAll(tasks);
+
+            Forest forest = new Forest(trees, sampleSize);
+            forest.scoreOutOfBag(data, inBag);
+            return forest;
+        }
+
+        // Draws as many rows as the dataset stands for, with replacement. Collapsed rows are drawn in
+        // proportion to their weights, so the sample is the one the uncollapsed rows would give
+        static int[] bootstrap(EncodedDataset data, Random random) {
+            int[] cumulative = new int[data.rowCount];
+            int total = 0;
+            for (int row = 0; row < data.rowCount; row++) {
+                total += data.weights == null ? 1 : data.weights[row];
+                cumulative[row] = total;
+            }
+            int[] weights = new int[data.rowCount];
+            for (int draw = 0; draw < total; draw++) {
+                int position = Arrays.binarySearch(cumulative, random.nextInt(total) + 1);
+                weights[position < 0 ? -position - 1 : position]++;
+            }
+            return weights;
+        }
+
+        void scoreOutOfBag(EncodedDataset data, BitSet[] inBag) {
+            int classes = data.classes.length;
+            int[] votes = new int[data.rowCount * classes];
+            BitSet outOfBag = new BitSet(data.rowCount); // Rows left out by at least one tree
+            double treeAccuracy = 0;
+            for (int t = 0; t < trees.length; t++) {
+                long seen = 0;
+                long correct = 0;
+                for (int row = inBag[t].nextClearBit(0); row < data.rowCount; row = inBag[t].nextClearBit(row + 1)) {
+                    int weight = data.weights == null ? 1 : data.weights[row];
+                    int label = trees[t].predictRow(data.columns, row);
+                    outOfBag.set(row);
+                    seen += weight;
+                    if (label >= 0) {
+                        votes[row * classes + label]++;
+                        if (label == data.labels[row]) correct += weight;
+                    }
+                }
+                treeAccuracy += seen == 0 ? 0 : (double) correct / seen;
+            }
+            treeOutOfBagAccuracy = treeAccuracy / trees.length;
+
+            long seen = 0;
+            long correct = 0;
+            for (int row = outOfBag.nextSetBit(0); row >= 0; row = outOfBag.nextSetBit(row + 1)) {
+                int winner = vote(votes, row * classes, classes); // -2 when every vote was Unknown
+                int weight = data.weights == null ? 1 : data.weights[row];
+                seen += weight;
+                if (winner == data.labels[row]) correct += weight;
+            }
+            outOfBagAccuracy = seen == 0 ? 0 : (double) correct / seen;
+        }
+
+        // Class with the most votes in votes[offset..offset+classes) (the lowest id on a tie);
+        // -2 when there are no votes at all
+        static int vote(int[] votes, int offset, int classes) {
+            int best = -2;
+            int bestVotes = 0;
+            for (int c = 0; c < classes; c++) {
+                if (votes[offset + c] > bestVotes) {
+                    bestVotes = votes[offset + c];
+                    best = c;
+                }
+            }
+            return best;
+        }
+
+        String predict(List<String> input) {
+            int[] row = trees[0].encode(input);
+            int[][] columns = new int[row.length][];
+            for (int f = 0; f < row.length; f++) {
+                columns[f] = new int[]{row[f]};
+            }
+            int[] out = new int[1];
+            predictBatch(columns, 0, 1, out);
+            return out[0] < 0 ? "Unknown" : trees[0].classes[out[0]];
+        }
+
+        // Rows are scored in blocks: each tree walks the whole block while its arrays are in cache,
+        // adding one vote per row, and the votes of the block are counted at the end
+        public void predictBatch(int[][] columns, int from, int to, int[] out) {
+            int classes = trees[0].classes.length;
+            int[] votes = new int[BLOCK * classes];
+            for (int start = from; start < to; start += BLOCK) {
+                int end = Math.min(start + BLOCK, to);
+                Arrays.fill(votes, 0);
+                for (CompiledTree tree : trees) {
+                    for (int row = start; row < end; row++) {
+                        int label = tree.predictRow(columns, row);
+                        if (label >= 0) votes[(row - start) * classes + label]++;
+                    }
+                }
+                for (int row = start; row < end; row++) {
+                    int winner = vote(votes, (row - start) * classes, classes);
+                    out[row] = winner < 0 ? -1 : winner;
+                }
+            }
+        }
+
+        int nodeCount() {
+            int nodes = 0;
+            for (CompiledTree tree : trees) {
+                nodes += tree.nodeCount();
+            }
+            return nodes;
+        }
+
+        public List<String> headers() {
+            return trees[0].headers;
+        }
+
+        public String[] classes() {
+            return trees[0].classes;
+        }
+
+        public int valueId(int feature, String value) {
+            return trees[0].valueId(feature, value);
+        }
+
+        public int featureCount() {
+            return trees[0].featureCount();
+        }
+    }
+
+    // Tree compiled into flat arrays for fast prediction. Nodes are numbered in pre-order; an internal
+    // node keeps the index of the attribute it tests and a block of child slots indexed by dictionary id,
+    // a leaf keeps the id of its class label. A numeric attribute is encoded as the bin its value falls in
+    // between the thresholds the tree tests on it, so a threshold node is just a block of bin slots
+    static class CompiledTree implements Scorer {
+        final List<String> headers;
+        final String[][] values;      // Dictionary per attribute: the ids used by the child slots
+        final String[] classes;
+        final int[] feature;          // Attribute index tested by the node, -1 for a leaf
+        final int[] label;            // Class id of a leaf, -1 for an internal node
+        final int[] childBase;        // Start of the node's block in children
+        final int[] childLimit;       // Number of slots in the block (the size of the attribute's dictionary)
+        final int[] children;         // Child node for each dictionary id, -1 when there is no branch
+        final int[] edgeId;           // Id of the branch value leading into the node (-1 for the root)
+        final double[][] cuts;        // Sorted thresholds tested on each numeric attribute (null if categorical)
+        final List<Map<String, Integer>> normalizedIds; // Per attribute: trim().toLowerCase() form -> an id
+
+        CompiledTree(List<String> headers, String[][] values, double[][] cuts, String[] classes, int[] feature,
+                     int[] label, int[] childBase, int[] childLimit, int[] children, int[] edgeId) {
+            this.headers = headers;
+            this.values = values;
+            this.cuts = cuts;
+            this.classes = classes;
+            this.feature = feature;
+            this.label = label;
+            this.childBase = childBase;
+            this.childLimit = childLimit;
+            this.children = children;
+            this.edgeId = edgeId;
+
+            // Per attribute, the normalized form of a value points to the first id having that form
+            normalizedIds = new ArrayList<>();
+            for (String[] dictionary : values) {
+                Map<String, Integer> normalized = new HashMap<>();
+                for (int id = 0; id < dictionary.length; id++) {
+                    normalized.putIfAbsent(dictionary[id].trim().toLowerCase(), id);
+                }
+                normalizedIds.add(normalized);
+            }
+        }
+
+        static CompiledTree compile(Node root, EncodedDataset data) {
+            return compile(root, data.headers, data.dictionaries, data.classes);
+        }
+
+        static CompiledTree compile(Node root, List<String> headers, String[][] dictionaries, String[] classes) {
+            // Number the nodes in pre-order
+            List<Node> nodes = new ArrayList<>();
+            Deque<Node> stack = new ArrayDeque<>();
+            stack.push(root);
+            Map<Node, Integer> index = new IdentityHashMap<>();
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                index.put(node, nodes.size());
+                nodes.add(node);
+                List<Node> children = new ArrayList<>(node.children.values());
+                for (int i = children.size() - 1; i >= 0; i--) {
+                    stack.push(children.get(i));
+                }
+            }
+
+            // The thresholds tested on a numeric attribute anywhere in the tree become its bin boundaries
+            Map<Integer, TreeSet<Double>> thresholds = new HashMap<>();
+            for (Node node : nodes) {
+                if (node.isNumeric()) {
+                    thresholds.computeIfAbsent(headers.indexOf(node.attribute), f -> new TreeSet<>()).add(node.threshold);
+                }
+            }
+            double[][] cuts = new double[dictionaries.length][];
+            thresholds.forEach((f, set) -> cuts[f] = set.stream().mapToDouble(Double::doubleValue).toArray());
+
+            // Branch values and labels that are not in the dictionaries get new ids after the known ones.
+            // A numeric attribute only keeps its branch keys (its slots are bins, not dictionary ids)
+            ValueDictionary[] values = new ValueDictionary[dictionaries.length];
+            for (int f = 0; f < dictionaries.length; f++) {
+                values[f] = new ValueDictionary();
+                if (cuts[f] != null) continue;
+                for (String value : dictionaries[f]) values[f].encode(value);
+            }
+            ValueDictionary labels = new ValueDictionary();
+            for (String value : classes) labels.encode(value);
+
+            for (Node node : nodes) {
+                if (node.isLeaf()) {
+                    labels.encode(node.label);
+                } else {
+                    int f = headers.indexOf(node.attribute);
+                    for (String key : node.children.keySet()) values[f].encode(key);
+                }
+            }
+
+            int n = nodes.size();
+            int[] feature = new int[n];
+            int[] label = new int[n];
+            int[] childBase = new int[n];
+            int[] childLimit = new int[n];
+            int slots = 0;
+            for (int i = 0; i < n; i++) {
+                Node node = nodes.get(i);
+                if (node.isLeaf()) {
+                    feature[i] = -1;
+                    label[i] = labels.ids.get(node.label);
+                } else {
+                    feature[i] = headers.indexOf(node.attribute);
+                    label[i] = -1;
+                    childBase[i] = slots;
+                    childLimit[i] = node.isNumeric() ? cuts[feature[i]].length + 1 : values[feature[i]].values.size();
+                    slots += childLimit[i];
+                }
+            }
+
+            // Like predict: a value follows the first branch (in child order) whose key matches it
+            // after trim().toLowerCase(), so every id with that normalized form gets the same child
+            int[] children = new int[slots];
+            int[] edgeId = new int[n];
+            Arrays.fill(children, -1);
+            edgeId[0] = -1;
+            for (int i = 0; i < n; i++) {
+                Node node = nodes.get(i);
+                if (node.isLeaf()) continue;
+                ValueDictionary dictionary = values[feature[i]];
+                Map<String, Integer> firstMatch = new HashMap<>();
+                for (Map.Entry<String, Node> entry : node.children.entrySet()) {
+                    firstMatch.putIfAbsent(entry.getKey().trim().toLowerCase(), index.get(entry.getValue()));
+                    edgeId[index.get(entry.getValue())] = dictionary.ids.get(entry.getKey());
+                }
+                if (node.isNumeric()) {
+                    // Bins up to the node's threshold go to the first child, the bins above it to the second
+                    List<Node> sides = new ArrayList<>(node.children.values());
+                    int last = Arrays.binarySearch(cuts[feature[i]], node.threshold);
+                    for (int bin = 0; bin < childLimit[i]; bin++) {
+                        children[childBase[i] + bin] = index.get(sides.get(bin <= last ? 0 : 1));
+                    }
+                    continue;
+                }
+                for (int id = 0; id < childLimit[i]; id++) {
+                    Integer child = firstMatch.get(dictionary.values.get(id).trim().toLowerCase());
+                    if (child != null) children[childBase[i] + id] = child;
+                }
+            }
+
+            String[][] dictionaryArrays = new String[values.length][];
+            for (int f = 0; f < values.length; f++) {
+                dictionaryArrays[f] = values[f].toArray();
+            }
+            return new CompiledTree(headers, dictionaryArrays, cuts, labels.toArray(), feature, label, childBase,
+                    childLimit, children, edgeId);
+        }
+
+        int nodeCount() {
+            return feature.length;
+        }
+
+        // Rough heap footprint: the node arrays, plus each dictionary value with its normalized key and map entry
+        long sizeInBytes() {
+            long bytes = 6 * 16 + 4L * (5 * feature.length + children.length);
+            for (String[] dictionary : values) {
+                for (String value : dictionary) bytes += 2 * (40 + value.length()) + 48;
+            }
+            for (String name : classes) bytes += 40 + name.length();
+            for (double[] thresholds : cuts) {
+                if (thresholds != null) bytes += 16 + 8L * thresholds.length;
+            }
+            return bytes;
+        }
+
+        // Normalizes every input value once and maps it to an id (-1 when the value was never seen)
+        int[] encode(List<String> input) {
+            int[] row = new int[normalizedIds.size()];
+            for (int f = 0; f < row.length; f++) {
+                row[f] = valueId(f, input.get(f));
+            }
+            return row;
+        }
+
+        // Slot id of one input value: the bin of the number for a numeric attribute (how many thresholds
+        // lie below it), otherwise the id of its normalized form. -1 when it was never seen or is not a number
+        public int valueId(int feature, String value) {
+            double[] cut = cuts[feature];
+            if (cut != null) {
+                double number = parseNumber(value);
+                if (Double.isNaN(number)) return -1;
+                int bin = Arrays.binarySearch(cut, number);
+                return bin >= 0 ? bin : -bin - 1;
+            }
+            Integer id = normalizedIds.get(feature).get(value.trim().toLowerCase());
+            return id == null ? -1 : id;
+        }
+
+        // Same answer as predict(Node, List<String>); the chosen branches are added to path when it is not null
+        String predict(List<String> input, List<String> path) {
+            long start = Metrics.start();
+            String label = follow(input, path);
+            Metrics.predicted(start, label);
+            return label;
+        }
+
+        String follow(List<String> input, List<String> path) {
+            int[] row = encode(input);
+            int node = 0;
+            while (feature[node] >= 0) {
+                int value = row[feature[node]];
+                int child = value < 0 ? -1 : children[childBase[node] + value];
+                if (child < 0) return "Unknown";
+                if (path != null) path.add(headers.get(feature[node]) + "=" + values[feature[node]][edgeId[child]]);
+                node = child;
+            }
+            return classes[label[node]];
+        }
+
+        public List<String> headers() {
+            return headers;
+        }
+
+        public String[] classes() {
+            return classes;
+        }
+
+        public int featureCount() {
+            return normalizedIds.size();
+        }
+
+        // Class id for one encoded row (columns[f][row]), or -1 for Unknown
+        int predictRow(int[][] columns, int row) {
+            int node = 0;
+            while (feature[node] >= 0) {
+                int value = columns[feature[node]][row];
+                if (value < 0 || value >= childLimit[node]) return -1;
+                node = children[childBase[node] + value];
+                if (node < 0) return -1;
+            }
+            return label[node];
+        }
+
+        // Per attribute, the slot of each dictionary id of data (what valueId gives for its text), so rows of
+        // a dataset with other dictionaries, or with numeric attributes, can be scored without decoding them
+        int[][] slotsFor(EncodedDataset data) {
+            int[][] slots = new int[data.featureCount()][];
+            for (int f = 0; f < slots.length; f++) {
+                slots[f] = new int[data.dictionaries[f].length];
+                for (int id = 0; id < slots[f].length; id++) {
+                    slots[f][id] = valueId(f, data.dictionaries[f][id]);
+                }
+            }
+            return slots;
+        }
+
+        // Class id for one encoded row translated through slotsFor, or -1 for Unknown
+        int predictRow(int[][] columns, int[][] slots, int row) {
+            int node = 0;
+            while (feature[node] >= 0) {
+                int value = slots[feature[node]][columns[feature[node]][row]];
+                if (value < 0 || value >= childLimit[node]) return -1;
+                node = children[childBase[node] + value];
+                if (node < 0) return -1;
+            }
+            return label[node];
+        }
+
+        // Scores rows [from, to) of column-encoded data into out[from..to): class ids, -1 for Unknown.
+        // The ids must come from the dictionaries the tree was compiled with
+        public void predictBatch(int[][] columns, int from, int to, int[] out) {
+            for (int row = from; row < to; row++) {
+                out[row] = predictRow(columns, row);
+            }
+        }
+
+        void predictBatch(EncodedDataset rows, int[] out) {
+            predictBatch(rows.columns, 0, rows.rowCount, out);
+        }
+
+        String className(int id) {
+            return id < 0 ? "Unknown" : classes[id];
+        }
+
+        // Rebuilds the Node tree (for printTree2 and the DOT export). Children are numbered in pre-order,
+        // so sorting a node's distinct children by index restores the original branch order
+        Node toNode() {
+            return toNode(0);
+        }
+
+        private Node toNode(int node) {
+            if (feature[node] < 0) {
+                return new Node(null, classes[label[node]]);
+            }
+            Node result = new Node(headers.get(feature[node]));
+            int[] childNodes = Arrays.stream(children, childBase[node], childBase[node] + childLimit[node])
+                    .filter(child -> child >= 0).distinct().sorted().toArray();
+            for (int child : childNodes) {
+                result.children.put(values[feature[node]][edgeId[child]], toNode(child));
+            }
+            if (cuts[feature[node]] != null) {
+                // The threshold is the upper end of the last bin that goes to the first child
+                int last = 0;
+                while (children[childBase[node] + last + 1] == childNodes[0]) last++;
+                result.threshold = cuts[feature[node]][last];
+            }
+            return result;
+        }
+
+        // Trimmed attribute values as shown in the interactive prompts
+        Map<String, Set<String>> attributeValues() {
+            Map<String, Set<String>> result = new HashMap<>();
+            for (int f = 0; f < values.length; f++) {
+                Set<String> set = new HashSet<>();
+                if (cuts[f] != null) {
+                    set.add("number");
+                } else {
+                    for (String value : values[f]) set.add(value.trim());
+                }
+                result.put(headers.get(f), set);
+            }
+            Set<String> labels = new HashSet<>();
+            for (String value : classes) labels.add(value.trim());
+            result.put(headers.get(headers.size() - 1), labels);
+            return result;
+        }
+    }
+
+    // Binary model file: a versioned header, the headers/dictionaries/classes as length-prefixed UTF-8
+    // strings, then the flat arrays of the CompiledTree as raw ints. Loading maps the file and copies
+    // the int sections straight into the arrays, so no tree is rebuilt and nothing is retrained
+    static class ModelFile {
+        static final int MAGIC = 0x44544d46; // "DTMF"
+        static final int VERSION = 2; // 2 added the thresholds of numeric attributes
+
+        static void save(CompiledTree model, String path) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeStrings(out, model.headers.toArray(new String[0]));
+                out.writeInt(model.values.length);
+                for (String[] dictionary : model.values) {
+                    writeStrings(out, dictionary);
+                }
+                for (double[] cut : model.cuts) {
+                    out.writeInt(cut == null ? -1 : cut.length);
+                    if (cut == null) continue;
+                    for (double threshold : cut) out.writeDouble(threshold);
+                }
+                writeStrings(out, model.classes);
+                out.writeInt(model.nodeCount());
+                out.writeInt(model.children.length);
+                writeInts(out, model.feature);
+                writeInts(out, model.label);
+                writeInts(out, model.childBase);
+                writeInts(out, model.childLimit);
+                writeInts(out, model.edgeId);
+                writeInts(out, model.children);
+            }
+        }
+
+        static CompiledTree load(String path) throws IOException {
+            try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+                ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (in.remaining() < 8 || in.getInt() != MAGIC) {
+                    throw new IOException("Not a decision tree model file: " + path);
+                }
+                int version = in.getInt();
+                if (version < 1 || version > VERSION) {
+                    throw new IOException("Unsupported model file version " + version + " (expected up to " + VERSION + ")");
+                }
+                List<String> headers = Arrays.asList(readStrings(in));
+                String[][] values = new String[in.getInt()][];
+                for (int f = 0; f < values.length; f++) {
+                    values[f] = readStrings(in);
+                }
+                double[][] cuts = new double[values.length][];
+                for (int f = 0; version >= 2 && f < values.length; f++) {
+                    int count = in.getInt();
+                    if (count < 0) continue;
+                    cuts[f] = new double[count];
+                    for (int i = 0; i < count; i++) cuts[f][i] = in.getDouble();
+                }
+                String[] classes = readStrings(in);
+                int nodes = in.getInt();
+                int slots = in.getInt();
+                int[] feature = readInts(in, nodes);
+                int[] label = readInts(in, nodes);
+                int[] childBase = readInts(in, nodes);
+                int[] childLimit = readInts(in, nodes);
+                int[] edgeId = readInts(in, nodes);
+                int[] children = readInts(in, slots);
+                return new CompiledTree(headers, values, cuts, classes, feature, label, childBase, childLimit, children, edgeId);
+            } catch (java.nio.BufferUnderflowException e) {
+                throw new IOException("Model file is truncated: " + path, e);
+            }
+        }
+
+        // True when the file starts with the model magic number (used to accept a model wherever a data file is)
+        static boolean isModelFile(String path) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(path))) {
+                return in.readInt() == MAGIC;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+            out.writeInt(strings.length);
+            for (String value : strings) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        static String[] readStrings(ByteBuffer in) {
+            String[] strings = new String[in.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[in.getInt()];
+                in.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return strings;
+        }
+
+        static void writeInts(DataOutputStream out, int[] values) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+            buffer.asIntBuffer().put(values);
+            out.write(buffer.array());
+        }
+
+        static int[] readInts(ByteBuffer in, int count) {
+            int[] values = new int[count];
+            in.asIntBuffer().get(values);
+            in.position(in.position() + count * 4);
+            return values;
+        }
+    }
+
+    // Graph functions:
+    //######################################################################################################################################
+    // Show image 1
+    // Exports the decision tree to a Graphviz DOT file for visualization
+    static void exportToGraphviz(Node node, String filePath) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new FileWriter(filePath));
+        writer.write("digraph Tree {\n");
+        writer.write("rankdir=TB;\n"); // Top-down layout
+        writer.write("node [shape=box, style=filled, color=black, fontname=\"Segoe UI Variable Text Semibold\", fontsize=16];\n");
+        generateDotContent(node, writer, new int[]{0}, "N0");
+        writer.write("}\n");
+        writer.close();
+    }
+
+    // Recursively generates the DOT content by traversing the tree nodes and writing node/edge definitions
+    //used to generate the full tree without highlighting
+    static void generateDotContent(Node node, BufferedWriter writer, int[] id, String name) throws IOException {
+        String label = node.isLeaf() ? node.label : node.attribute;
+        String fill = node.isLeaf() ? "#ccffcc" : "#ffe0b3"; // pale green / pale orange
+        writer.write(name + " [label=\"" + label + "\", fillcolor=\"" + fill + "\"];\n");
+
+        for (Map.Entry<String, Node> entry : node.children.entrySet()) {
+            id[0]++;
+            String childName = "N" + id[0];
+            writer.write(name + " -> " + childName + " [label=\"" + entry.getKey() + "\", fontsize=14];\n");
+            generateDotContent(entry.getValue(), writer, id, childName);
+        }
+    }
+
+    // Uses the Graphviz 'dot' tool to convert a DOT file into a high-resolution PNG image
+    static void generatePNGFromDot(String dotFile, String pngFile) throws IOException, InterruptedException {
+        //ProcessBuilder pb = new ProcessBuilder("dot", "-Tpng", dotFile, "-o", pngFile);
+        ProcessBuilder pb = new ProcessBuilder("dot", "-Tpng", "-Gdpi=300", dotFile, "-o", pngFile);
+
+        Process process = pb.start();
+        int exitCode = process.waitFor();
+        if (exitCode != 0) {
+            throw new RuntimeException("Graphviz conversion failed. Check if 'dot' is installed and in your PATH.");
+        }
+    }
+
+    // Showing And Opening Image
+    static void openImageWithDefaultViewer(String imagePath) throws IOException {
+        File imageFile = new File(imagePath);
+        if (!Desktop.isDesktopSupported()) {
+            System.err.println("Desktop not supported. Cannot open image automatically.");
+            return;
+        }
+
+        Desktop desktop = Desktop.getDesktop();
+        if (imageFile.exists()) {
+            desktop.open(imageFile); // Open with system's default image viewer
+        } else {
+            System.err.println("Image file does not exist: " + imagePath);
+        }
+    }
+
+    //######################################################################################################################################
+    // Show image 2 after running and getting input
+    static void exportToGraphviz2(Node root, String filePath, List<String> selections) throws IOException {
+        new TreeGraph(root).write(filePath, selections);
+    }
+
+    // DOT text of a whole tree, generated once per model: the node ids and every node and edge in the
+    // plain style. A highlighted graph is this text plus a few lines that restyle the nodes and edges of
+    // one path, so a prediction never walks the tree again. The graph is strict, which makes a repeated
+    // edge statement restyle the existing edge instead of adding a second one
+    static class TreeGraph {
+        final Node root;
+        final Map<Node, String> nodeIds = new IdentityHashMap<>();
+        final Map<String, Node> nodes = new HashMap<>();
+        final byte[] base; // Everything but the path styling and the closing brace
+
+        TreeGraph(Node root) {
+            this.root = root;
+            assignNodeIds(root, "N0", nodeIds, new int[]{0});
+            nodeIds.forEach((node, id) -> nodes.put(id, node));
+
+            StringBuilder dot = new StringBuilder("strict digraph Tree {\n");
+            dot.append("rankdir=TB;\n");
+            dot.append("bgcolor=white;\n");
+            dot.append("node [shape=box, style=filled, color=black, fillcolor=white, fontname=\"Segoe UI\", fontsize=16];\n");
+            // Same statement order as the recursive export (each edge right before the subtree it leads to),
+            // since dot places the nodes of a rank in the order it first meets them
+            Deque<Node> stack = new ArrayDeque<>();
+            Map<Node, String> incoming = new IdentityHashMap<>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                String nodeId = nodeIds.get(node);
+                if (node != root) dot.append(incoming.get(node));
+                dot.append(nodeId).append(" [label=\"").append(node.isLeaf() ? node.label : node.attribute).append("\"];\n");
+                List<Map.Entry<String, Node>> entries = new ArrayList<>(node.children.entrySet());
+                for (int i = entries.size() - 1; i >= 0; i--) {
+                    Node child = entries.get(i).getValue();
+                    incoming.put(child, nodeId + " -> " + nodeIds.get(child) + " [label=\"" + entries.get(i).getKey()
+                            + "\", color=\"black\"];\n");
+                    stack.push(child);
+                }
+            }
+            base = dot.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        // The styling of the selected path (attribute=value steps, as in Prediction.path) and the closing brace
+        String overlay(List<String> selections) {
+            Set<String> visitedNodes = new LinkedHashSet<>();
+            Set<String> visitedEdges = new LinkedHashSet<>();
+            followSelectedPath(root, selections, nodeIds, visitedNodes, visitedEdges);
+
+            StringBuilder dot = new StringBuilder();
+            for (String nodeId : visitedNodes) {
+                dot.append(nodeId).append(" [fillcolor=\"").append(nodes.get(nodeId).isLeaf() ? "#ccffcc" : "#ffd699")
+                        .append("\"];\n");
+            }
+            for (String edge : visitedEdges) {
+                dot.append(edge.replace("->", " -> ")).append(" [color=\"orange\"];\n");
+            }
+            return dot.append("}\n").toString();
+        }
+
+        void write(String filePath, List<String> selections) throws IOException {
+            try (OutputStream out = new FileOutputStream(filePath)) {
+                out.write(base);
+                out.write(overlay(selections).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    // Renders the highlighted tree after each prediction. Inline by default (like before); with
+    // --render-workers=<n> the jobs go to n background threads so the prompt comes back at once. Each
+    // background job gets its own numbered files, and when the queue is full the oldest waiting job is
+    // dropped, since only the latest highlights are worth drawing
+    static class PathRenderer {
+        static final int QUEUE_LIMIT = 16;
+
+        final Node root;
+        final ThreadPoolExecutor workers; // null when rendering inline
+        final AtomicLong jobs = new AtomicLong();
+        private TreeGraph graph;
+
+        PathRenderer(Node root, int workerCount) {
+            this.root = root;
+            if (workerCount <= 0) {
+                workers = null;
+                return;
+            }
+            workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(QUEUE_LIMIT), runnable -> {
+                        Thread thread = new Thread(runnable, "dot-render");
+                        thread.setDaemon(true);
+                        return thread;
+                    }, new ThreadPoolExecutor.DiscardOldestPolicy());
+        }
+
+        // Built on first use, so a model that never predicts never pays for its DOT text
+        synchronized TreeGraph graph() {
+            if (graph == null) graph = new TreeGraph(root);
+            return graph;
+        }
+
+        void render(List<String> path) throws IOException, InterruptedException {
+            if (workers == null) {
+                graph().write("highlighted_tree.dot", path);
+                generatePNGFromDot("highlighted_tree.dot", "highlighted_tree.png");
+                openImageWithDefaultViewer("highlighted_tree.png");
+                return;
+            }
+            String name = "highlighted_tree_" + jobs.incrementAndGet();
+            workers.execute(() -> {
+                try {
+                    graph().write(name + ".dot", path);
+                    generatePNGFromDot(name + ".dot", name + ".png");
+                    openImageWithDefaultViewer(name + ".png");
+                } catch (Exception e) {
+                    System.err.println("\uD83D\uDEE0 Graphviz Error (" + name + "): " + e.getMessage());
+                }
+            });
+            System.out.println("🖼 Rendering " + name + ".png in the background");
+        }
+
+        // Lets the queued renders complete before the program exits
+        void finish() throws InterruptedException {
+            if (workers == null) return;
+            workers.shutdown();
+            if (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.err.println("⚠️ Some highlighted trees were still rendering and were skipped");
+            }
+        }
+    }
+
+    // Assign unique IDs to each node
+    static void assignNodeIds(Node node, String id, Map<Node, String> nodeIds, int[] counter) {
+        nodeIds.put(node, id);
+        for (Map.Entry<String, Node> entry : node.children.entrySet()) {
+            counter[0]++;
+            assignNodeIds(entry.getValue(), "N" + counter[0], nodeIds, counter);
+        }
+    }
+
+    // Follow path from selections and mark nodes and edges to highlight
+    static void followSelectedPath(Node node, List<String> selections, Map<Node, String> nodeIds,
+                                   Set<String> visitedNodes, Set<String> visitedEdges) {
+        Node current = node;
+        visitedNodes.add(nodeIds.get(current));
+
+        for (String sel : selections) {
+            String[] parts = sel.split("=", 2); // split into at most 2 parts
+            if (parts.length < 2) continue;     // skip if not proper key=value format
+
+            String attr = parts[0];
+            String value = parts[1];
+
+            if (!current.attribute.equals(attr)) {
+                continue;  // skip if not matching attribute yet
+            }
+
+            Node child = current.children.get(value);
+            if (child == null) return;
+
+            String fromId = nodeIds.get(current);
+            String toId = nodeIds.get(child);
+
+            visitedNodes.add(toId);
+            visitedEdges.add(fromId + "->" + toId);
+
+            current = child;
+
+            if (current.isLeaf()) break;
+        }
+
+    }
+
+    //######################################################################################################################################
+
+    // Dataset stored column by column: every cell is replaced by its id in the dictionary of its column
+    static class EncodedDataset {
+        final List<String> headers;      // Column names (the last one is the class column)
+        final int rowCount;
+        final int[][] columns;           // columns[feature][row] = dictionary id of the cell
+        final String[][] dictionaries;   // dictionaries[feature][id] = original cell text
+        final int[] labels;              // labels[row] = class id
+        final String[] classes;          // classes[id] = original class label
+        final int[] weights;             // Rows each row stands for after collapsing duplicates (null = all 1)
+        final int[] firstRow;            // First and last original row a collapsed row stands for
+        final int[] lastRow;
+        final CountKernel gainKernel;    // Scores the splits from packed keys (null = the plain informationGain)
+        private volatile PackedKeys packedKeys;   // Built on first use by a gain kernel
+        private int maxWeight;                    // Largest row weight, found on first use (0 = not yet)
+        private boolean unitWeights;              // Every row weighs 1 (false until found, which is safe)
+
+        EncodedDataset(List<String> headers, int rowCount, int[][] columns, String[][] dictionaries,
+                       int[] labels, String[] classes) {
+            this(headers, rowCount, columns, dictionaries, labels, classes, null, null, null);
+        }
+
+        EncodedDataset(List<String> headers, int rowCount, int[][] columns, String[][] dictionaries,
+                       int[] labels, String[] classes, int[] weights, int[] firstRow, int[] lastRow) {
+            this(headers, rowCount, columns, dictionaries, labels, classes, weights, firstRow, lastRow, null);
+        }
+
+        EncodedDataset(List<String> headers, int rowCount, int[][] columns, String[][] dictionaries,
+                       int[] labels, String[] classes, int[] weights, int[] firstRow, int[] lastRow,
+                       CountKernel gainKernel) {
+            this.headers = headers;
+            this.rowCount = rowCount;
+            this.columns = columns;
+            this.dictionaries = dictionaries;
+            this.labels = labels;
+            this.classes = classes;
+            this.weights = weights;
+            this.firstRow = firstRow;
+            this.lastRow = lastRow;
+            this.gainKernel = gainKernel;
+        }
+
+        // The same rows, with splits scored by the given kernel (datasets derived from it keep the kernel)
+        EncodedDataset withGainKernel(CountKernel kernel) {
+            if (kernel == gainKernel) return this;
+            EncodedDataset scored = new EncodedDataset(headers, rowCount, columns, dictionaries, labels, classes,
+                    weights, firstRow, lastRow, kernel);
+            scored.packedKeys = packedKeys;
+            if (kernel != null) GainKernel.report(scored, kernel);
+            return scored;
+        }
+
+        // The same rows with other weights (a bootstrap sample); the packed keys are shared, not rebuilt
+        EncodedDataset withWeights(int[] weights) {
+            EncodedDataset weighted = new EncodedDataset(headers, rowCount, columns, dictionaries, labels, classes,
+                    weights, null, null, gainKernel);
+            if (gainKernel != null) weighted.packedKeys = packedKeys();
+            return weighted;
+        }
+
+        // Largest weight of a row (1 without weights). Both values are found in one pass on first use; a race
+        // only computes them twice
+        int maxWeight() {
+            if (maxWeight == 0) scanWeights();
+            return maxWeight;
+        }
+
+        // True when no row stands for more or fewer than one row, so counts need no weights
+        boolean unitWeights() {
+            if (maxWeight == 0) scanWeights();
+            return unitWeights;
+        }
+
+        private void scanWeights() {
+            int max = 1;
+            boolean unit = true;
+            for (int row = 0; weights != null && row < rowCount; row++) {
+                max = Math.max(max, weights[row]);
+                unit &= weights[row] == 1;
+            }
+            unitWeights = unit;
+            maxWeight = max;
+        }
+
+        // Number of original rows a subset stands for
+        int weight(int[] subset) {
+            if (weights == null) return subset.length;
+            int total = 0;
+            for (int row : subset) {
+                total += weights[row];
+            }
+            return total;
+        }
+
+        // Read on every split scored, so the lock is only taken while the keys are not built yet
+        PackedKeys packedKeys() {
+            PackedKeys keys = packedKeys;
+            if (keys != null) return keys;
+            synchronized (this) {
+                if (packedKeys == null) packedKeys = new PackedKeys(this);
+                return packedKeys;
+            }
+        }
+
+        int featureCount() {
+            return columns.length;
+        }
+
+        // Decodes a single feature cell back to its text
+        String value(int feature, int row) {
+            return dictionaries[feature][columns[feature][row]];
+        }
+
+        // Row indices 0..rowCount-1, the subset used for the root of the tree
+        int[] allRows() {
+            int[] rows = new int[rowCount];
+            for (int i = 0; i < rowCount; i++) {
+                rows[i] = i;
+            }
+            return rows;
+        }
+
+        // The given rows, in that order, as a dataset of their own (the dictionaries are shared)
+        EncodedDataset select(int[] rows) {
+            int[][] selected = new int[columns.length][];
+            for (int f = 0; f < columns.length; f++) {
+                selected[f] = pick(columns[f], rows);
+            }
+            return new EncodedDataset(headers, rows.length, selected, dictionaries, pick(labels, rows), classes,
+                    pick(weights, rows), pick(firstRow, rows), pick(lastRow, rows), gainKernel);
+        }
+
+        static int[] pick(int[] values, int[] rows) {
+            if (values == null) return null;
+            int[] picked = new int[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                picked[i] = values[rows[i]];
+            }
+            return picked;
+        }
+    }
+
+    // Row set as a compressed bitmap in the style of Roaring: rows are grouped by their high 16 bits and
+    // each group of up to 65536 rows is kept in whichever container is smallest for it. Sparse groups
+    // are a sorted array, dense groups a 1024-word bitset and stretches of consecutive rows a run list
+    static class RowBitmap {
+        static final int ARRAY_LIMIT = 4096; // Above this many values a bitset is smaller than an array
+        static final RowBitmap EMPTY = new RowBitmap(new char[0], new Container[0], 0);
+
+        final char[] keys;              // High 16 bits of the rows in each container, ascending
+        final Container[] containers;
+        final int size;
+
+        RowBitmap(char[] keys, Container[] containers, int size) {
+            this.keys = keys;
+            this.containers = containers;
+            this.size = size;
+        }
+
+        // Rows rows[from..to) in ascending order
+        static RowBitmap of(int[] rows, int from, int to) {
+            if (from == to) return EMPTY;
+            int groups = (rows[to - 1] >>> 16) - (rows[from] >>> 16) + 1;
+            char[] keys = new char[groups];
+            Container[] containers = new Container[groups];
+            int size = 0;
+            for (int start = from; start < to; ) {
+                int high = rows[start] >>> 16;
+                int end = start;
+                while (end < to && rows[end] >>> 16 == high) end++;
+                keys[size] = (char) high;
+                containers[size++] = Container.of(rows, start, end);
+                start = end;
+            }
+            return new RowBitmap(keys, containers, size);
+        }
+
+        int[] toArray() {
+            int[] rows = new int[cardinality()];
+            int[] count = new int[1];
+            forEach(row -> rows[count[0]++] = row);
+            return rows;
+        }
+
+        int cardinality() {
+            int cardinality = 0;
+            for (int i = 0; i < size; i++) {
+                cardinality += containers[i].cardinality();
+            }
+            return cardinality;
+        }
+
+        int first() {
+            return keys[0] << 16 | containers[0].first();
+        }
+
+        int last() {
+            return keys[size - 1] << 16 | containers[size - 1].last();
+        }
+
+        void forEach(IntConsumer action) {
+            for (int i = 0; i < size; i++) {
+                containers[i].forEach(keys[i] << 16, action);
+            }
+        }
+
+        RowBitmap and(RowBitmap other) {
+            char[] keys = new char[Math.min(size, other.size)];
+            Container[] containers = new Container[keys.length];
+            int count = 0;
+            for (int i = 0, j = 0; i < size && j < other.size; ) {
+                if (this.keys[i] < other.keys[j]) {
+                    i++;
+                } else if (this.keys[i] > other.keys[j]) {
+                    j++;
+                } else {
+                    Container container = this.containers[i].and(other.containers[j]);
+                    if (container.cardinality() > 0) {
+                        keys[count] = this.keys[i];
+                        containers[count++] = container;
+                    }
+                    i++;
+                    j++;
+                }
+            }
+            return count == 0 ? EMPTY : new RowBitmap(keys, containers, count);
+        }
+
+        // Size of the intersection without building it
+        int andCardinality(RowBitmap other) {
+            int cardinality = 0;
+            for (int i = 0, j = 0; i < size && j < other.size; ) {
+                if (keys[i] < other.keys[j]) {
+                    i++;
+                } else if (keys[i] > other.keys[j]) {
+                    j++;
+                } else {
+                    cardinality += containers[i++].andCardinality(other.containers[j++]);
+                }
+            }
+            return cardinality;
+        }
+
+        long sizeInBytes() {
+            long bytes = 16 + size * 2L;
+            for (int i = 0; i < size; i++) {
+                bytes += containers[i].sizeInBytes();
+            }
+            return bytes;
+        }
+
+        // The low 16 bits of the rows in one group
+        abstract static class Container {
+            abstract int cardinality();
+
+            abstract int first();
+
+            abstract int last();
+
+            abstract boolean contains(int low);
+
+            abstract Container and(Container other);
+
+            abstract int andCardinality(Container other);
+
+            abstract void forEach(int high, IntConsumer action);
+
+            abstract int sizeInBytes();
+
+            // Picks the smallest container for rows[from..to), which share their high 16 bits
+            static Container of(int[] rows, int from, int to) {
+                int cardinality = to - from;
+                int runs = 1;
+                for (int i = from + 1; i < to; i++) {
+                    if (rows[i] != rows[i - 1] + 1) runs++;
+                }
+                if (runs * 4 <= Math.min(cardinality * 2, 8192)) {
+                    char[] starts = new char[runs];
+                    char[] ends = new char[runs];
+                    int run = 0;
+                    starts[0] = (char) rows[from];
+                    for (int i = from + 1; i < to; i++) {
+                        if (rows[i] != rows[i - 1] + 1) {
+                            ends[run++] = (char) rows[i - 1];
+                            starts[run] = (char) rows[i];
+                        }
+                    }
+                    ends[run] = (char) rows[to - 1];
+                    return new RunContainer(starts, ends, runs, cardinality);
+                }
+                if (cardinality <= ARRAY_LIMIT) {
+                    char[] values = new char[cardinality];
+                    for (int i = 0; i < cardinality; i++) {
+                        values[i] = (char) rows[from + i];
+                    }
+                    return new ArrayContainer(values, cardinality);
+                }
+                long[] words = new long[1024];
+                for (int i = from; i < to; i++) {
+                    words[(rows[i] & 0xFFFF) >>> 6] |= 1L << rows[i];
+                }
+                return new BitsetContainer(words, cardinality);
+            }
+
+            // A bitset result goes back to an array when it has become sparse
+            static Container fromWords(long[] words, int cardinality) {
+                if (cardinality > ARRAY_LIMIT) return new BitsetContainer(words, cardinality);
+                char[] values = new char[cardinality];
+                int count = 0;
+                for (int w = 0; w < words.length; w++) {
+                    for (long word = words[w]; word != 0; word &= word - 1) {
+                        values[count++] = (char) (w << 6 | Long.numberOfTrailingZeros(word));
+                    }
+                }
+                return new ArrayContainer(values, cardinality);
+            }
+        }
+
+        static class ArrayContainer extends Container {
+            final char[] values;
+            final int cardinality;
+
+            ArrayContainer(char[] values, int cardinality) {
+                this.values = values;
+                this.cardinality = cardinality;
+            }
+
+            int cardinality() {
+                return cardinality;
+            }
+
+            int first() {
+                return values[0];
+            }
+
+            int last() {
+                return values[cardinality - 1];
+            }
+
+            boolean contains(int low) {
+                return Arrays.binarySearch(values, 0, cardinality, (char) low) >= 0;
+            }
+
+            // Deep nodes meet large value bitmaps: a much smaller array is looked up instead of merged
+            boolean probes(Container other) {
+                return !(other instanceof ArrayContainer) || cardinality * 16 < other.cardinality();
+            }
+
+            Container and(Container other) {
+                if (other instanceof ArrayContainer && other.cardinality() * 16 < cardinality) return other.and(this);
+                char[] result = new char[cardinality];
+                int count = 0;
+                if (!probes(other)) {
+                    ArrayContainer array = (ArrayContainer) other;
+                    for (int i = 0, j = 0; i < cardinality && j < array.cardinality; ) {
+                        if (values[i] < array.values[j]) i++;
+                        else if (values[i] > array.values[j]) j++;
+                        else {
+                            result[count++] = values[i++];
+                            j++;
+                        }
+                    }
+                } else {
+                    for (int i = 0; i < cardinality; i++) {
+                        if (other.contains(values[i])) result[count++] = values[i];
+                    }
+                }
+                return new ArrayContainer(result, count);
+            }
+
+            int andCardinality(Container other) {
+                if (other instanceof ArrayContainer && other.cardinality() * 16 < cardinality) {
+                    return other.andCardinality(this);
+                }
+                int count = 0;
+                if (!probes(other)) {
+                    ArrayContainer array = (ArrayContainer) other;
+                    for (int i = 0, j = 0; i < cardinality && j < array.cardinality; ) {
+                        if (values[i] < array.values[j]) i++;
+                        else if (values[i] > array.values[j]) j++;
+                        else {
+                            count++;
+                            i++;
+                            j++;
+                        }
+                    }
+                } else {
+                    for (int i = 0; i < cardinality; i++) {
+                        if (other.contains(values[i])) count++;
+                    }
+                }
+                return count;
+            }
+
+            void forEach(int high, IntConsumer action) {
+                for (int i = 0; i < cardinality; i++) {
+                    action.accept(high | values[i]);
+                }
+            }
+
+            int sizeInBytes() {
+                return 16 + cardinality * 2;
+            }
+        }
+
+        static class BitsetContainer extends Container {
+            final long[] words;
+            final int cardinality;
+
+            BitsetContainer(long[] words, int cardinality) {
+                this.words = words;
+                this.cardinality = cardinality;
+            }
+
+            int cardinality() {
+                return cardinality;
+            }
+
+            int first() {
+                int w = 0;
+                while (words[w] == 0) w++;
+                return w << 6 | Long.numberOfTrailingZeros(words[w]);
+            }
+
+            int last() {
+                int w = words.length - 1;
+                while (words[w] == 0) w--;
+                return w << 6 | 63 - Long.numberOfLeadingZeros(words[w]);
+            }
+
+            boolean contains(int low) {
+                return (words[low >>> 6] & 1L << low) != 0;
+            }
+
+            Container and(Container other) {
+                if (!(other instanceof BitsetContainer)) return other.and(this);
+                long[] otherWords = ((BitsetContainer) other).words;
+                long[] result = new long[1024];
+                int cardinality = 0;
+                for (int w = 0; w < 1024; w++) {
+                    result[w] = words[w] & otherWords[w];
+                    cardinality += Long.bitCount(result[w]);
+                }
+                return fromWords(result, cardinality);
+            }
+
+            // Word-parallel: one AND and one popcount per 64 rows
+            int andCardinality(Container other) {
+                if (!(other instanceof BitsetContainer)) return other.andCardinality(this);
+                long[] otherWords = ((BitsetContainer) other).words;
+                int cardinality = 0;
+                for (int w = 0; w < 1024; w++) {
+                    cardinality += Long.bitCount(words[w] & otherWords[w]);
+                }
+                return cardinality;
+            }
+
+            void forEach(int high, IntConsumer action) {
+                for (int w = 0; w < words.length; w++) {
+                    for (long word = words[w]; word != 0; word &= word - 1) {
+                        action.accept(high | w << 6 | Long.numberOfTrailingZeros(word));
+                    }
+                }
+            }
+
+            int sizeInBytes() {
+                return 16 + 8192;
+            }
+        }
+
+        // Runs of consecutive rows as inclusive [start, end] pairs
+        static class RunContainer extends Container {
+            final char[] starts;
+            final char[] ends;
+            final int runs;
+            final int cardinality;
+
+            RunContainer(char[] starts, char[] ends, int runs, int cardinality) {
+                this.starts = starts;
+                this.ends = ends;
+                this.runs = runs;
+                this.cardinality = cardinality;
+            }
+
+            int cardinality() {
+                return cardinality;
+            }
+
+            int first() {
+                return starts[0];
+            }
+
+            int last() {
+                return ends[runs - 1];
+            }
+
+            boolean contains(int low) {
+                int lo = 0;
+                int hi = runs - 1;
+                while (lo <= hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (ends[mid] < low) lo = mid + 1;
+                    else if (starts[mid] > low) hi = mid - 1;
+                    else return true;
+                }
+                return false;
+            }
+
+            Container and(Container other) {
+                if (other instanceof ArrayContainer) return other.and(this);
+                if (other instanceof BitsetContainer) {
+                    long[] otherWords = ((BitsetContainer) other).words;
+                    long[] result = new long[1024];
+                    int cardinality = 0;
+                    for (int r = 0; r < runs; r++) {
+                        cardinality += copyRange(otherWords, result, starts[r], ends[r]);
+                    }
+                    return fromWords(result, cardinality);
+                }
+                RunContainer run = (RunContainer) other;
+                char[] newStarts = new char[runs + run.runs];
+                char[] newEnds = new char[newStarts.length];
+                int count = 0;
+                int cardinality = 0;
+                for (int i = 0, j = 0; i < runs && j < run.runs; ) {
+                    int start = Math.max(starts[i], run.starts[j]);
+                    int end = Math.min(ends[i], run.ends[j]);
+                    if (start <= end) {
+                        newStarts[count] = (char) start;
+                        newEnds[count++] = (char) end;
+                        cardinality += end - start + 1;
+                    }
+                    if (ends[i] < run.ends[j]) i++;
+                    else j++;
+                }
+                return new RunContainer(newStarts, newEnds, count, cardinality);
+            }
+
+            int andCardinality(Container other) {
+                if (other instanceof ArrayContainer) return other.andCardinality(this);
+                if (other instanceof BitsetContainer) {
+                    long[] otherWords = ((BitsetContainer) other).words;
+                    int cardinality = 0;
+                    for (int r = 0; r < runs; r++) {
+                        cardinality += copyRange(otherWords, null, starts[r], ends[r]);
+                    }
+                    return cardinality;
+                }
+                RunContainer run = (RunContainer) other;
+                int cardinality = 0;
+                for (int i = 0, j = 0; i < runs && j < run.runs; ) {
+                    int start = Math.max(starts[i], run.starts[j]);
+                    int end = Math.min(ends[i], run.ends[j]);
+                    if (start <= end) cardinality += end - start + 1;
+                    if (ends[i] < run.ends[j]) i++;
+                    else j++;
+                }
+                return cardinality;
+            }
+
+            // Copies the bits [start, end] of words into target (when given) and returns how many are set
+            static int copyRange(long[] words, long[] target, int start, int end) {
+                int cardinality = 0;
+                for (int w = start >>> 6; w <= end >>> 6; w++) {
+                    long mask = -1L;
+                    if (w == start >>> 6) mask &= -1L << start;
+                    if (w == end >>> 6) mask &= -1L >>> (63 - (end & 63));
+                    long bits = words[w] & mask;
+                    if (target != null) target[w] |= bits;
+                    cardinality += Long.bitCount(bits);
+                }
+                return cardinality;
+            }
+
+            void forEach(int high, IntConsumer action) {
+                for (int r = 0; r < runs; r++) {
+                    for (int low = starts[r]; low <= ends[r]; low++) {
+                        action.accept(high | low);
+                    }
+                }
+            }
+
+            int sizeInBytes() {
+                return 16 + runs * 4;
+            }
+        }
+    }
+
+    // Bitmaps of the rows holding each value of each feature and each class, built once after loading
+    static class BitmapIndex {
+        final RowBitmap[][] values;  // values[feature][value id]
+        final RowBitmap[] classes;   // classes[class id]
+        final RowBitmap all;
+
+        BitmapIndex(RowBitmap[][] values, RowBitmap[] classes, RowBitmap all) {
+            this.values = values;
+            this.classes = classes;
+            this.all = all;
+        }
+
+        static BitmapIndex build(EncodedDataset data) {
+            RowBitmap[][] values = new RowBitmap[data.featureCount()][];
+            for (int f = 0; f < values.length; f++) {
+                values[f] = byValue(data.columns[f], data.dictionaries[f].length, data.rowCount);
+            }
+            int[] rows = data.allRows();
+            return new BitmapIndex(values, byValue(data.labels, data.classes.length, data.rowCount),
+                    RowBitmap.of(rows, 0, rows.length));
+        }
+
+        // Counting sort of the rows by id, so every slice is already in ascending row order
+        static RowBitmap[] byValue(int[] column, int ids, int rowCount) {
+            int[] start = new int[ids + 1];
+            for (int row = 0; row < rowCount; row++) {
+                start[column[row] + 1]++;
+            }
+            for (int id = 0; id < ids; id++) {
+                start[id + 1] += start[id];
+            }
+            int[] sorted = new int[rowCount];
+            int[] next = Arrays.copyOf(start, ids);
+            for (int row = 0; row < rowCount; row++) {
+                sorted[next[column[row]]++] = row;
+            }
+            RowBitmap[] bitmaps = new RowBitmap[ids];
+            for (int id = 0; id < ids; id++) {
+                bitmaps[id] = RowBitmap.of(sorted, start[id], start[id + 1]);
+            }
+            return bitmaps;
+        }
+
+        // Container counts by kind and total size, for the load report
+        String summary() {
+            int[] kinds = new int[3];
+            long[] bytes = new long[1];
+            List<RowBitmap> bitmaps = new ArrayList<>(Arrays.asList(classes));
+            for (RowBitmap[] feature : values) {
+                bitmaps.addAll(Arrays.asList(feature));
+            }
+            for (RowBitmap bitmap : bitmaps) {
+                bytes[0] += bitmap.sizeInBytes();
+                for (int i = 0; i < bitmap.size; i++) {
+                    RowBitmap.Container container = bitmap.containers[i];
+                    kinds[container instanceof RowBitmap.ArrayContainer ? 0
+                            : container instanceof RowBitmap.BitsetContainer ? 1 : 2]++;
+                }
+            }
+            return String.format("%d bitmaps, %d array / %d bitset / %d run containers, %.1f KB",
+                    bitmaps.size(), kinds[0], kinds[1], kinds[2], bytes[0] / 1024.0);
+        }
+    }
+
+    // External-memory ID3: the rows stay on disk and the tree grows breadth-first, one sequential scan
+    // of the file per level. During a scan each row is routed through the finished part of the tree to
+    // its open (frontier) node, which only accumulates class counts and value x class counts for its
+    // candidate attributes. After the scan every frontier node is decided at once with the same rules as
+    // buildTree, so the tree is identical to the in-memory one; peak memory follows the frontier size
+    static class OutOfCoreBuilder {
+        static final int CHUNK_SIZE = 4 << 20;
+
+        final String fileName;
+        final int threads;
+        List<String> headers;
+        ValueDictionary[] dictionaries; // Feature columns, then the class column
+        int featureCount;
+        long rows;
+        int passes;
+        int peakFrontier;
+        long peakFrontierBytes;
+
+        // Where a row goes: an internal node forwards by value id, an open node collects counts
+        static class Route {
+            int feature = -1;
+            Route[] children;
+            Open open;
+        }
+
+        // A frontier node and the counts of the rows that reach it during the current scan
+        static class Open {
+            final Node node;
+            final Route route;
+            final List<Integer> features;
+            int[] classCounts;
+            long[] classFirst;          // First row of each class (for the HashMap order of countLabels)
+            int[][] tables;             // Per candidate feature: value x class counts
+            long[][] valueFirst;        // Per candidate feature: first row of each value
+            long lastRow = -1;
+
+            Open(Node node, Route route, List<Integer> features) {
+                this.node = node;
+                this.route = route;
+                this.features = features;
+            }
+        }
+
+        OutOfCoreBuilder(String fileName, int threads) {
+            this.fileName = fileName;
+            this.threads = threads;
+        }
+
+        Node build() throws IOException, InterruptedException {
+            ExecutorService workers = Executors.newFixedThreadPool(threads);
+            try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+                long size = channel.size();
+                long bodyStart = ChunkedLoader.lineEnd(channel, 0, size);
+                String headerLine = ChunkedLoader.stripLineBreak(
+                        new String(ChunkedLoader.readRange(channel, 0, bodyStart), StandardCharsets.UTF_8));
+                String delimiter = detectDelimiter(headerLine);
+                headers = Arrays.asList(headerLine.split(Pattern.quote(delimiter)));
+                byte separator = (byte) delimiter.charAt(0);
+                featureCount = Math.max(headers.size() - 1, 0);
+
+                // Pass 0: the dictionaries, in order of first appearance like ChunkedLoader builds them
+                dictionaries = new ValueDictionary[featureCount + 1];
+                for (int c = 0; c <= featureCount; c++) {
+                    dictionaries[c] = new ValueDictionary();
+                }
+                ChunkedLoader.streamChunks(channel, bodyStart, size, CHUNK_SIZE, workers, threads * 2,
+                        text -> new Chunk(text, separator, featureCount),
+                        chunk -> {
+                            for (int c = 0; c <= featureCount; c++) {
+                                for (String value : chunk.dictionaries[c].values) dictionaries[c].encode(value);
+                            }
+                            rows += chunk.rows;
+                        });
+                passes = 1;
+
+                Node root = new Node(null);
+                Route rootRoute = new Route();
+                List<Integer> features = new ArrayList<>();
+                for (int i = 0; i < featureCount; i++) {
+                    features.add(i);
+                }
+                List<Open> frontier = new ArrayList<>();
+                rootRoute.open = new Open(root, rootRoute, features);
+                frontier.add(rootRoute.open);
+
+                // One scan per level
+                while (!frontier.isEmpty()) {
+                    long bytes = 0;
+                    for (Open open : frontier) {
+                        bytes += allocate(open);
+                    }
+                    peakFrontier = Math.max(peakFrontier, frontier.size());
+                    peakFrontierBytes = Math.max(peakFrontierBytes, bytes);
+
+                    long[] rowIndex = new long[1];
+                    ChunkedLoader.streamChunks(channel, bodyStart, size, CHUNK_SIZE, workers, threads * 2,
+                            text -> new Chunk(text, separator, featureCount),
+                            chunk -> accumulate(chunk, rootRoute, rowIndex));
+                    passes++;
+
+                    List<Open> next = new ArrayList<>();
+                    for (Open open : frontier) {
+                        expand(open, next);
+                    }
+                    frontier = next;
+                }
+                return root;
+            } finally {
+                workers.shutdownNow();
+            }
+        }
+
+        long allocate(Open open) {
+            int classes = dictionaries[featureCount].values.size();
+            open.classCounts = new int[classes];
+            open.classFirst = new long[classes];
+            open.tables = new int[open.features.size()][];
+            open.valueFirst = new long[open.features.size()][];
+            long bytes = classes * 12L;
+            for (int i = 0; i < open.features.size(); i++) {
+                int values = dictionaries[open.features.get(i)].values.size();
+                open.tables[i] = new int[values * classes];
+                open.valueFirst[i] = new long[values];
+                bytes += values * (classes * 4L + 8L);
+            }
+            return bytes;
+        }
+
+        // Routes every row of the chunk to its frontier node and counts it there
+        void accumulate(Chunk chunk, Route root, long[] rowIndex) {
+            int[][] ids = new int[featureCount + 1][];
+            for (int c = 0; c <= featureCount; c++) {
+                ByteDictionary local = chunk.dictionaries[c];
+                int[] remap = new int[local.size()];
+                for (int id = 0; id < remap.length; id++) {
+                    remap[id] = dictionaries[c].ids.get(local.values.get(id));
+                }
+                ids[c] = new int[chunk.rows];
+                for (int r = 0; r < chunk.rows; r++) {
+                    ids[c][r] = remap[chunk.codes[c][r]];
+                }
+            }
+
+            int classes = dictionaries[featureCount].values.size();
+            int[] labels = ids[featureCount];
+            for (int r = 0; r < chunk.rows; r++) {
+                long row = rowIndex[0]++;
+                Route route = root;
+                while (route != null && route.feature >= 0) {
+                    route = route.children[ids[route.feature][r]];
+                }
+                if (route == null || route.open == null) continue; // The row ends in a finished leaf
+
+                Open open = route.open;
+                int label = labels[r];
+                if (open.classCounts[label]++ == 0) open.classFirst[label] = row;
+                for (int i = 0; i < open.tables.length; i++) {
+                    int value = ids[open.features.get(i)][r];
+                    if (open.tables[i][value * classes + label]++ == 0) {
+                        boolean seen = false;
+                        for (int c = 0; c < classes && !seen; c++) {
+                            seen = c != label && open.tables[i][value * classes + c] > 0;
+                        }
+                        if (!seen) open.valueFirst[i][value] = row;
+                    }
+                }
+                open.lastRow = row;
+            }
+        }
+
+        // Decides a frontier node exactly like buildTree and queues its children for the next level
+        void expand(Open open, List<Open> next) {
+            int classes = dictionaries[featureCount].values.size();
+            String[] classNames = dictionaries[featureCount].toArray();
+            Node node = open.node;
+            open.route.open = null;
+
+            // Class counts in a HashMap filled in order of first appearance, as countLabels does
+            Integer[] classOrder = new Integer[classes];
+            int distinct = 0;
+            int total = 0;
+            for (int c = 0; c < classes; c++) {
+                if (open.classCounts[c] > 0) {
+                    classOrder[distinct++] = c;
+                    total += open.classCounts[c];
+                }
+            }
+            Arrays.sort(classOrder, 0, distinct, Comparator.comparingLong(c -> open.classFirst[c]));
+            Map<String, Integer> labelCount = new HashMap<>();
+            for (int i = 0; i < distinct; i++) {
+                labelCount.put(classNames[classOrder[i]], open.classCounts[classOrder[i]]);
+            }
+            if (total == 0) {
+                node.label = "Unknown"; // No row reached this node (cannot happen for a branch seen in the data)
+                return;
+            }
+
+            if (labelCount.size() == 1) {
+                node.label = labelCount.keySet().iterator().next();
+                return;
+            }
+            if (open.features.isEmpty()) {
+                node.label = majorityLabel(labelCount);
+                return;
+            }
+
+            double baseEntropy = entropy(open.classCounts, 0, classes, total);
+            int best = -1;
+            double bestGain = -1;
+            for (int i = 0; i < open.features.size(); i++) {
+                int values = dictionaries[open.features.get(i)].values.size();
+                int[] valueTotals = new int[values];
+                for (int v = 0; v < values; v++) {
+                    for (int c = 0; c < classes; c++) {
+                        valueTotals[v] += open.tables[i][v * classes + c];
+                    }
+                }
+                double gain = gainFromTable(open.tables[i], valueTotals, classes, total, baseEntropy);
+                if (gain > bestGain) {
+                    bestGain = gain;
+                    best = i;
+                }
+            }
+            if (best == -1) {
+                node.label = majorityLabel(labelCount);
+                return;
+            }
+
+            int feature = open.features.get(best);
+            String[] values = dictionaries[feature].toArray();
+            node.attribute = headers.get(feature);
+            List<Integer> newFeatures = new ArrayList<>(open.features);
+            newFeatures.remove(Integer.valueOf(feature));
+
+            // Branch order: values by first appearance, replayed through branchOrder like splitByFeature
+            Integer[] present = new Integer[values.length];
+            int count = 0;
+            for (int v = 0; v < values.length; v++) {
+                for (int c = 0; c < classes; c++) {
+                    if (open.tables[best][v * classes + c] > 0) {
+                        present[count++] = v;
+                        break;
+                    }
+                }
+            }
+            long[] first = open.valueFirst[best];
+            Arrays.sort(present, 0, count, Comparator.comparingLong(v -> first[v]));
+            int[] firstSeen = new int[count];
+            for (int i = 0; i < count; i++) {
+                firstSeen[i] = present[i];
+            }
+            boolean rowsAfterLastNew = open.lastRow > first[firstSeen[count - 1]];
+
+            open.route.feature = feature;
+            open.route.children = new Route[values.length];
+            for (int value : branchOrder(values, firstSeen, count, rowsAfterLastNew)) {
+                Node child = new Node(null);
+                Route childRoute = new Route();
+                node.children.put(values[value], child);
+                open.route.children[value] = childRoute;
+                Open childOpen = new Open(child, childRoute, newFeatures);
+                childRoute.open = childOpen;
+                next.add(childOpen);
+            }
+            open.tables = null; // Counts are no longer needed once the node is decided
+            open.valueFirst = null;
+        }
+
+        CompiledTree compile(Node root) {
+            String[][] featureDictionaries = new String[featureCount][];
+            for (int f = 0; f < featureCount; f++) {
+                featureDictionaries[f] = dictionaries[f].toArray();
+            }
+            return CompiledTree.compile(root, headers, featureDictionaries, dictionaries[featureCount].toArray());
+        }
+    }
+
+    // Finds identical rows through 64-bit fingerprints of the encoded feature columns. Fingerprints are
+    // computed in parallel over row blocks; rows are then sharded by fingerprint and every shard is scanned
+    // in row order on its own task, so "first occurrence" means the same thing as in a sequential pass.
+    // Fingerprint matches are confirmed by comparing the ids, so a hash collision cannot merge rows
+    static class DuplicateIndex {
+        static final int BLOCK = 1 << 14;
+
+        // first[i] = index of the first row with the same features (and the same label when withLabel)
+        static int[] firstOccurrence(EncodedDataset data, boolean withLabel) {
+            int n = data.rowCount;
+            long[] fingerprints = new long[n];
+            java.util.stream.IntStream.range(0, (n + BLOCK - 1) / BLOCK).parallel().forEach(block -> {
+                int from = block * BLOCK;
+                int to = Math.min(n, from + BLOCK);
+                Arrays.fill(fingerprints, from, to, 0x9E3779B97F4A7C15L);
+                for (int[] column : data.columns) {
+                    for (int r = from; r < to; r++) {
+                        fingerprints[r] = mix(fingerprints[r] ^ column[r]);
+                    }
+                }
+                if (withLabel) {
+                    for (int r = from; r < to; r++) {
+                        fingerprints[r] = mix(fingerprints[r] ^ ~data.labels[r]);
+                    }
+                }
+            });
+
+            // Stable bucketing of the rows by shard
+            int shards = Integer.highestOneBit(Math.max(1, Math.min(64, n / BLOCK)) * 2);
+            int[] shardStart = new int[shards + 1];
+            for (long fingerprint : fingerprints) {
+                shardStart[shardOf(fingerprint, shards) + 1]++;
+            }
+            for (int s = 0; s < shards; s++) {
+                shardStart[s + 1] += shardStart[s];
+            }
+            int[] fill = Arrays.copyOf(shardStart, shards);
+            int[] shardRows = new int[n];
+            for (int r = 0; r < n; r++) {
+                shardRows[fill[shardOf(fingerprints[r], shards)]++] = r;
+            }
+
+            int[] first = new int[n];
+            java.util.stream.IntStream.range(0, shards).parallel().forEach(s -> {
+                int size = shardStart[s + 1] - shardStart[s];
+                int[] slots = new int[Integer.highestOneBit(Math.max(size, 1) * 2) * 2];
+                int mask = slots.length - 1;
+                for (int k = shardStart[s]; k < shardStart[s + 1]; k++) {
+                    int row = shardRows[k];
+                    int slot = (int) (fingerprints[row] >>> 32) & mask;
+                    while (true) {
+                        int candidate = slots[slot] - 1; // Slots hold row + 1, 0 means empty
+                        if (candidate < 0) {
+                            slots[slot] = row + 1;
+                            first[row] = row;
+                            break;
+                        }
+                        if (fingerprints[candidate] == fingerprints[row] && sameRow(data, candidate, row, withLabel)) {
+                            first[row] = candidate;
+                            break;
+                        }
+                        slot = (slot + 1) & mask;
+                    }
+                }
+            });
+            return first;
+        }
+
+        static int shardOf(long fingerprint, int shards) {
+            return (int) fingerprint & (shards - 1);
+        }
+
+        static boolean sameRow(EncodedDataset data, int a, int b, boolean withLabel) {
+            if (withLabel && data.labels[a] != data.labels[b]) return false;
+            for (int[] column : data.columns) {
+                if (column[a] != column[b]) return false;
+            }
+            return true;
+        }
+
+        // 64-bit finalizer (from MurmurHash3)
+        static long mix(long h) {
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+
+    // Maps the distinct values of one column to dense ids (in order of first appearance)
+    static class ValueDictionary {
+        final Map<String, Integer> ids = new HashMap<>();
+        final List<String> values = new ArrayList<>();
+
+        int encode(String value) {
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = values.size();
+                ids.put(value, id);
+                values.add(value);
+            }
+            return id;
+        }
+
+        String[] toArray() {
+            return values.toArray(new String[0]);
+        }
+    }
+
+    // Reads a CSV/TXT file through a FileChannel: the body is cut into chunks at line boundaries,
+    // every chunk is parsed on the common pool into local dictionaries, and the chunks are merged
+    // in file order so dictionary ids stay in order of first appearance (as a line-by-line read gives)
+    static class ChunkedLoader {
+        static final int CHUNK_SIZE = 8 << 20;   // 8 MB of text per parse task
+        static final int SCAN_WINDOW = 64 << 10; // Read size used when looking for the end of a line
+
+        final String fileName;
+        LoadStats stats;
+
+        ChunkedLoader(String fileName) {
+            this.fileName = fileName;
+        }
+
+        EncodedDataset load() throws IOException {
+            long start = System.nanoTime();
+            try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+                long size = channel.size();
+                long bodyStart = lineEnd(channel, 0, size);
+                if (bodyStart == 0) {
+                    throw new IOException("File is empty: " + fileName);
+                }
+                String headerLine = stripLineBreak(new String(readRange(channel, 0, bodyStart), StandardCharsets.UTF_8));
+                String delimiter = detectDelimiter(headerLine);
+                List<String> headers = Arrays.asList(headerLine.split(Pattern.quote(delimiter)));
+                byte separator = (byte) delimiter.charAt(0);
+                int featureCount = Math.max(headers.size() - 1, 0);
+
+                // Cut the body into chunks that end right after a line break
+                List<long[]> ranges = new ArrayList<>();
+                for (long from = bodyStart; from < size; ) {
+                    long to = from + CHUNK_SIZE >= size ? size : lineEnd(channel, from + CHUNK_SIZE, size);
+                    ranges.add(new long[]{from, to});
+                    from = to;
+                }
+
+                List<Callable<Chunk>> parsing = new ArrayList<>();
+                for (long[] range : ranges) {
+                    parsing.add(() -> new Chunk(readRange(channel, range[0], range[1]), separator, featureCount));
+                }
+                List<Chunk> chunks = getAll(ForkJoinPool.commonPool().invokeAll(parsing));
+
+                EncodedDataset data = merge(headers, featureCount, chunks);
+                stats = new LoadStats(data.rowCount, size, System.nanoTime() - start);
+                return data;
+            }
+        }
+
+        // Joins the chunk results column by column; each column is remapped to global ids on its own task
+        static EncodedDataset merge(List<String> headers, int featureCount, List<Chunk> chunks) throws IOException {
+            int rowCount = 0;
+            for (Chunk chunk : chunks) {
+                rowCount += chunk.rows;
+            }
+
+            int[][] columns = new int[featureCount + 1][];
+            String[][] dictionaries = new String[featureCount + 1][];
+            List<Callable<Void>> merging = new ArrayList<>();
+            for (int c = 0; c <= featureCount; c++) {
+                int column = c;
+                int total = rowCount;
+                merging.add(() -> {
+                    ValueDictionary dictionary = new ValueDictionary();
+                    int[] codes = new int[total];
+                    int offset = 0;
+                    for (Chunk chunk : chunks) {
+                        ByteDictionary local = chunk.dictionaries[column];
+                        int[] remap = new int[local.size()];
+                        for (int id = 0; id < remap.length; id++) {
+                            remap[id] = dictionary.encode(local.values.get(id));
+                        }
+                        int[] localCodes = chunk.codes[column];
+                        for (int r = 0; r < chunk.rows; r++) {
+                            codes[offset + r] = remap[localCodes[r]];
+                        }
+                        offset += chunk.rows;
+                    }
+                    columns[column] = codes;
+                    dictionaries[column] = dictionary.toArray();
+                    return null;
+                });
+            }
+            getAll(ForkJoinPool.commonPool().invokeAll(merging));
+
+            return new EncodedDataset(headers, rowCount, Arrays.copyOf(columns, featureCount),
+                    Arrays.copyOf(dictionaries, featureCount), columns[featureCount], dictionaries[featureCount]);
+        }
+
+        static <T> List<T> getAll(List<Future<T>> futures) throws IOException {
+            List<T> results = new ArrayList<>();
+            try {
+                for (Future<T> future : futures) {
+                    results.add(future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Loading was interrupted", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+            return results;
+        }
+
+        interface ChunkParser<T> {
+            T parse(byte[] text) throws Exception;
+        }
+
+        interface ChunkConsumer<T> {
+            void accept(T parsed) throws IOException;
+        }
+
+        // Cuts [from, size) into chunks at line boundaries and parses them on the workers, handing the
+        // results to the consumer in file order. At most maxInFlight chunks are read or parsed at a time,
+        // so memory stays bounded however large the file is
+        static <T> void streamChunks(FileChannel channel, long from, long size, int chunkSize, ExecutorService workers,
+                                     int maxInFlight, ChunkParser<T> parser, ChunkConsumer<T> consumer)
+                throws IOException, InterruptedException {
+            Deque<Future<T>> inFlight = new ArrayDeque<>();
+            for (long start = from; start < size; ) {
+                long end = start + chunkSize >= size ? size : lineEnd(channel, start + chunkSize, size);
+                long chunkStart = start;
+                inFlight.add(workers.submit(() -> parser.parse(readRange(channel, chunkStart, end))));
+                while (inFlight.size() >= maxInFlight) {
+                    consumer.accept(next(inFlight));
+                }
+                start = end;
+            }
+            while (!inFlight.isEmpty()) {
+                consumer.accept(next(inFlight));
+            }
+        }
+
+        static <T> T next(Deque<Future<T>> inFlight) throws IOException, InterruptedException {
+            try {
+                return inFlight.poll().get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Parsing failed", e.getCause());
+            }
+        }
+
+        // Position just after the first line break at or after 'from' (or the end of the file)
+        static long lineEnd(FileChannel channel, long from, long size) throws IOException {
+            ByteBuffer window = ByteBuffer.allocate(SCAN_WINDOW);
+            for (long position = from; position < size; position += window.limit()) {
+                window.clear();
+                channel.read(window, position);
+                window.flip();
+                for (int i = 0; i < window.limit(); i++) {
+                    if (window.get(i) == '\n') {
+                        return position + i + 1;
+                    }
+                }
+            }
+            return size;
+        }
+
+        static byte[] readRange(FileChannel channel, long from, long to) throws IOException {
+            byte[] bytes = new byte[(int) (to - from)];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, from + buffer.position()) < 0) break;
+            }
+            return bytes;
+        }
+
+        static String stripLineBreak(String line) {
+            int end = line.length();
+            while (end > 0 && (line.charAt(end - 1) == '\n' || line.charAt(end - 1) == '\r')) end--;
+            return line.substring(0, end);
+        }
+    }
+
+    // Benchmarks for the hot paths (loading, building, split scoring and prediction). Each benchmark is
+    // warmed up, then timed over several iterations; the bytes allocated by all threads and the GC count
+    // are reported per operation, so a change that adds allocation shows up next to the timing
+    static class Benchmarks {
+        static final int WARMUP_ITERATIONS = 5;
+        static final int MEASURED_ITERATIONS = 10;
+        static final long ITERATION_NANOS = 200_000_000L;
+        static volatile Object sink; // Keeps results alive so the JIT cannot drop the work
+        static String only;          // --only=<prefix> runs just the benchmarks whose name starts with it
+
+        interface Operation {
+            Object run() throws IOException;
+        }
+
+        static void run(String[] args) throws IOException {
+            only = option(args, "--only");
+            String[] targets = Arrays.stream(args).filter(arg -> !arg.startsWith("--")).toArray(String[]::new);
+            if (targets.length == 0) {
+                // The shapes of the bundled datasets plus a larger synthetic table
+                targets = new String[]{"14x4x3", "24x4x3", "277x9x11", "100000x20x8"};
+            }
+            System.out.printf("%-22s %-28s %14s %12s %14s %6s%n",
+                    "Benchmark", "Dataset", "ns/op", "ops/s", "alloc B/op", "GCs");
+            for (String target : targets) {
+                File file = new File(target);
+                boolean synthetic = !file.exists();
+                if (synthetic) {
+                    String[] shape = target.split("x");
+                    file = File.createTempFile("bench_" + target, ".csv");
+                    file.deleteOnExit();
+                    writeSynthetic(file, Integer.parseInt(shape[0]), Integer.parseInt(shape[1]),
+                            Integer.parseInt(shape[2]), 42);
+                }
+                benchmarkDataset(target, file.getPath());
+            }
+        }
+
+        static void benchmarkDataset(String name, String fileName) throws IOException {
+            measure("readDataFile", name, () -> readDataFile(fileName, null));
+
+            EncodedDataset dataset = readDataFile(fileName, null);
+            int[] rows = dataset.allRows();
+            List<Integer> features = new ArrayList<>();
+            for (int i = 0; i < dataset.featureCount(); i++) {
+                features.add(i);
+            }
+
+            // The console report is formatted as usual but written to a null stream
+            ConsoleTrace discard = new ConsoleTrace(new PrintStream(OutputStream.nullOutputStream()));
+            measure("buildTree", name, () -> buildTree(dataset, rows, features, BuildTrace.NONE));
+            measure("buildTree+console", name, () -> buildTree(dataset, rows, features, discard));
+            measure("buildTreeParallel", name, () -> buildTreeParallel(dataset, rows, features));
+            if (selected("buildTreeBitmap")) {
+                BitmapIndex index = BitmapIndex.build(dataset);
+                measure("buildTreeBitmap", name, () -> buildTreeBitmap(dataset, index, index.all, features, BuildTrace.NONE));
+            }
+            boolean[] numeric = numericColumns(dataset);
+            if (numeric != null) {
+                measure("buildTreeNumeric", name,
+                        () -> new ThresholdTreeBuilder(dataset, numeric).build(features, BuildTrace.NONE));
+            }
+
+            double baseEntropy = entropy(dataset, rows);
+            measure("informationGain", name, () -> {
+                double total = 0;
+                for (int feature : features) {
+                    total += informationGain(dataset, rows, feature, baseEntropy);
+                }
+                return total;
+            });
+
+            // The same gains from packed keys, over all rows (consecutive) and over a scattered half of
+            // them (like a node further down), next to informationGain on that half
+            int[] half = IntStream.range(0, dataset.rowCount).filter(row -> ((row * 0x9E3779B9) & 0x80000000) == 0).toArray();
+            double halfEntropy = entropy(dataset, half);
+            measure("informationGain(half)", name, () -> {
+                double total = 0;
+                for (int feature : features) {
+                    total += informationGain(dataset, half, feature, halfEntropy);
+                }
+                return total;
+            });
+            // The scattered half again with weights of 1 to 4, like collapsed duplicates or a bootstrap sample
+            Random random = new Random(1);
+            EncodedDataset weighted = dataset.withWeights(IntStream.range(0, dataset.rowCount)
+                    .map(row -> 1 + random.nextInt(4)).toArray());
+            double weightedEntropy = entropy(weighted, half);
+            measure("informationGain(weighted)", name, () -> {
+                double total = 0;
+                for (int feature : features) {
+                    total += informationGain(weighted, half, feature, weightedEntropy);
+                }
+                return total;
+            });
+            for (String kernelName : List.of("scalar", "vector")) {
+                CountKernel kernel = GainKernel.load(kernelName);
+                if (kernel == null || !selected("kernel." + kernelName)) continue;
+                dataset.packedKeys();
+                weighted.packedKeys();
+                measure("kernel." + kernelName, name, () -> {
+                    double total = 0;
+                    for (int feature : features) {
+                        total += GainKernel.informationGain(dataset, rows, feature, baseEntropy, kernel);
+                    }
+                    return total;
+                });
+                measure("kernel." + kernelName + "(half)", name, () -> {
+                    double total = 0;
+                    for (int feature : features) {
+                        total += GainKernel.informationGain(dataset, half, feature, halfEntropy, kernel);
+                    }
+                    return total;
+                });
+                measure("kernel." + kernelName + "(weighted)", name, () -> {
+                    double total = 0;
+                    for (int feature : features) {
+                        total += GainKernel.informationGain(weighted, half, feature, weightedEntropy, kernel);
+                    }
+                    return total;
+                });
+            }
+
+            if (!selected("predict") && !selected("compiled")) return;
+            Node root = buildTreeParallel(dataset, rows, features);
+            CompiledTree compiled = CompiledTree.compile(root, dataset);
+            List<List<String>> inputs = new ArrayList<>();
+            for (int r = 0; r < Math.min(dataset.rowCount, 10_000); r++) {
+                List<String> input = new ArrayList<>();
+                for (int f = 0; f < dataset.featureCount(); f++) {
+                    input.add(dataset.value(f, r));
+                }
+                inputs.add(input);
+            }
+            measure("predict", name, () -> {
+                String last = null;
+                for (List<String> input : inputs) {
+                    last = predict(root, dataset.headers, input, null);
+                }
+                return last;
+            });
+            measure("compiled.predict", name, () -> {
+                String last = null;
+                for (List<String> input : inputs) {
+                    last = compiled.predict(input, null);
+                }
+                return last;
+            });
+            int[] out = new int[dataset.rowCount];
+            measure("compiled.predictBatch", name, () -> {
+                compiled.predictBatch(dataset, out);
+                return out;
+            });
+        }
+
+        static boolean selected(String benchmark) {
+            return only == null || benchmark.startsWith(only) || only.startsWith(benchmark);
+        }
+
+        static void measure(String benchmark, String dataset, Operation operation) throws IOException {
+            if (only != null && !benchmark.startsWith(only)) return;
+            // Warm-up also finds how many calls make one iteration of about ITERATION_NANOS
+            int batch = 1;
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                long start = System.nanoTime();
+                for (int j = 0; j < batch; j++) {
+                    sink = operation.run();
+                }
+                long elapsed = System.nanoTime() - start;
+                if (elapsed < ITERATION_NANOS) {
+                    batch = (int) Math.min(Integer.MAX_VALUE / 2, Math.max(batch * 2L, batch * ITERATION_NANOS / Math.max(elapsed, 1)));
+                }
+            }
+
+            long operations = 0;
+            long allocatedBefore = allocatedBytes();
+            long gcBefore = gcCount();
+            long start = System.nanoTime();
+            for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+                for (int j = 0; j < batch; j++) {
+                    sink = operation.run();
+                }
+                operations += batch;
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = allocatedBytes() - allocatedBefore;
+            long gcs = gcCount() - gcBefore;
+
+            double nanosPerOp = (double) elapsed / operations;
+            System.out.printf("%-22s %-28s %14.1f %12.1f %14.0f %6d%n", benchmark, dataset, nanosPerOp,
+                    1e9 / nanosPerOp, allocated < 0 ? Double.NaN : (double) allocated / operations, gcs);
+        }
+
+        // Bytes allocated so far by all live threads (-1 when the JVM cannot tell)
+        static long allocatedBytes() {
+            java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+            if (!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+            com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+            if (!sunThreads.isThreadAllocatedMemorySupported()) return -1;
+            long total = 0;
+            for (long bytes : sunThreads.getThreadAllocatedBytes(sunThreads.getAllThreadIds())) {
+                if (bytes > 0) total += bytes;
+            }
+            return total;
+        }
+
+        static long gcCount() {
+            long count = 0;
+            for (java.lang.management.GarbageCollectorMXBean gc : java.lang.management.ManagementFactory.getGarbageCollectorMXBeans()) {
+                count += Math.max(gc.getCollectionCount(), 0);
+            }
+            return count;
+        }
+
+        // Random categorical table: the class depends on the first three attributes plus some noise,
+        // so the tree has real structure at every scale
+        static void writeSynthetic(File file, int rows, int attributes, int cardinality, long seed) throws IOException {
+            Random random = new Random(seed);
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+                for (int a = 0; a < attributes; a++) {
+                    writer.write("a" + a + ",");
+                }
+                writer.write("class\n");
+                int[] row = new int[attributes];
+                for (int r = 0; r < rows; r++) {
+                    for (int a = 0; a < attributes; a++) {
+                        row[a] = random.nextInt(cardinality);
+                        writer.write("v" + row[a] + ",");
+                    }
+                    int signal = row[0] + 2 * (attributes > 1 ? row[1] : 0) + (attributes > 2 ? row[2] : 0);
+                    int label = (signal + (random.nextInt(10) == 0 ? 1 : 0)) % 3;
+                    writer.write("c" + label + "\n");
+                }
+            }
+        }
+    }
+
+    // Streams an input file of feature rows through a compiled tree. The file is cut into chunks like
+    // ChunkedLoader does; each chunk is parsed and scored on a worker and the predictions are written in
+    // input order. At most a fixed number of chunks is in flight, so memory does not grow with the file
+    static class BatchScorer {
+        static final int CHUNK_SIZE = 4 << 20;
+
+        static LoadStats score(Scorer model, String inputFile, String outputFile, int threads)
+                throws IOException, InterruptedException {
+            long start = System.nanoTime();
+            ExecutorService workers = Executors.newFixedThreadPool(threads);
+            try (FileChannel channel = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ);
+                 OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile), 1 << 16)) {
+                long size = channel.size();
+                long bodyStart = ChunkedLoader.lineEnd(channel, 0, size);
+                String headerLine = ChunkedLoader.stripLineBreak(
+                        new String(ChunkedLoader.readRange(channel, 0, bodyStart), StandardCharsets.UTF_8));
+                String delimiter = detectDelimiter(headerLine);
+                byte separator = (byte) delimiter.charAt(0);
+
+                // Input columns are matched to the model's attributes by name, so their order may differ
+                List<String> inputHeaders = Arrays.asList(headerLine.split(Pattern.quote(delimiter)));
+                List<String> headers = model.headers();
+                int[] inputColumn = new int[model.featureCount()];
+                for (int f = 0; f < inputColumn.length; f++) {
+                    inputColumn[f] = inputHeaders.indexOf(headers.get(f));
+                    if (inputColumn[f] < 0) {
+                        throw new IOException("Input file has no column named " + headers.get(f));
+                    }
+                }
+
+                String[] classes = model.classes();
+                byte[][] labelBytes = new byte[classes.length + 1][];
+                for (int i = 0; i < classes.length; i++) {
+                    labelBytes[i] = (classes[i] + "\n").getBytes(StandardCharsets.UTF_8);
+                }
+                labelBytes[classes.length] = "Unknown\n".getBytes(StandardCharsets.UTF_8);
+                out.write((headers.get(headers.size() - 1) + "\n").getBytes(StandardCharsets.UTF_8));
+
+                int[] rows = new int[1];
+                ChunkedLoader.streamChunks(channel, bodyStart, size, CHUNK_SIZE, workers, threads * 2,
+                        text -> scoreChunk(model, text, separator, inputHeaders.size(), inputColumn, labelBytes),
+                        result -> {
+                            rows[0] += ByteBuffer.wrap(result).getInt(); // The first int is the row count
+                            out.write(result, 4, result.length - 4);
+                        });
+                return new LoadStats(rows[0], size, System.nanoTime() - start);
+            } finally {
+                workers.shutdownNow();
+            }
+        }
+
+        // Parses one chunk, maps every distinct cell to the model's id for it (same normalization as
+        // predict, -1 for values the model never saw, the bin for numbers) and scores the rows with predictBatch
+        static byte[] scoreChunk(Scorer model, byte[] text, byte separator, int inputWidth,
+                                 int[] inputColumn, byte[][] labelBytes) {
+            Chunk chunk = new Chunk(text, separator, inputWidth, false);
+            int[][] columns = new int[inputColumn.length][];
+            for (int f = 0; f < inputColumn.length; f++) {
+                ByteDictionary local = chunk.dictionaries[inputColumn[f]];
+                int[] remap = new int[local.size()];
+                for (int id = 0; id < remap.length; id++) {
+                    remap[id] = model.valueId(f, local.values.get(id));
+                }
+                int[] localCodes = chunk.codes[inputColumn[f]];
+                int[] codes = new int[chunk.rows];
+                for (int r = 0; r < chunk.rows; r++) {
+                    codes[r] = remap[localCodes[r]];
+                }
+                columns[f] = codes;
+            }
+
+            int[] predictions = new int[chunk.rows];
+            PredictionBatchEvent event = Metrics.batchEvent();
+            model.predictBatch(columns, 0, chunk.rows, predictions);
+            Metrics.batchPredicted(event, predictions);
+
+            ByteArrayOutputStream result = new ByteArrayOutputStream(4 + chunk.rows * 8);
+            result.writeBytes(ByteBuffer.allocate(4).putInt(chunk.rows).array());
+            int unknown = labelBytes.length - 1;
+            for (int prediction : predictions) {
+                result.writeBytes(labelBytes[prediction < 0 ? unknown : prediction]);
+            }
+            return result.toByteArray();
+        }
+    }
+
+    // Hammers one shared Model from 1, 2, 4, ... threads (up to the number of cores) and checks every
+    // answer and path against a single-threaded reference. With no shared mutable state the throughput
+    // should grow with the thread count until the cores run out. Given a training file, the tree is also
+    // rebuilt on several threads at once while predictions run, and every rebuilt tree must match
+    static class ConcurrencyStress {
+        static final int BUILD_THREADS = 4;
+        static final int BUILDS_PER_THREAD = 3;
+
+        // True when every prediction and every concurrently built tree matched the reference
+        static boolean run(String source, int seconds, CountKernel kernel) throws IOException, InterruptedException {
+            if (ModelFile.isModelFile(source)) {
+                return run(new Model(loadOrTrain(source, kernel)), seconds);
+            }
+            System.out.println("📂 Training on: " + source);
+            EncodedDataset data = collapseDuplicates(readDataFile(source, System.out)).withGainKernel(kernel);
+            List<Integer> features = new ArrayList<>();
+            for (int i = 0; i < data.featureCount(); i++) {
+                features.add(i);
+            }
+            Model model = new Model(buildTree(data, data.allRows(), features, BuildTrace.NONE), data);
+            boolean predictionsMatch = run(model, seconds);
+            return checkConcurrentBuilds(data, features, model) && predictionsMatch;
+        }
+
+        // BUILD_THREADS threads each build the tree BUILDS_PER_THREAD times (alternating the sequential and
+        // the fork/join builder) while as many threads predict with the shared model
+        static boolean checkConcurrentBuilds(EncodedDataset data, List<Integer> features, Model model)
+                throws InterruptedException {
+            List<List<String>> inputs = sampleInputs(model.compiled);
+            List<Prediction> expected = new ArrayList<>();
+            for (List<String> input : inputs) {
+                expected.add(model.predict(input));
+            }
+            LongAdder differentTrees = new LongAdder();
+            LongAdder wrong = new LongAdder();
+            LongAdder predictions = new LongAdder();
+            AtomicLong buildersLeft = new AtomicLong(BUILD_THREADS);
+
+            long start = System.nanoTime();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < BUILD_THREADS; t++) {
+                threads.add(new Thread(() -> {
+                    for (int b = 0; b < BUILDS_PER_THREAD; b++) {
+                        Node root = b % 2 == 0 ? buildTree(data, data.allRows(), features, BuildTrace.NONE)
+                                : buildTreeParallel(data, data.allRows(), features);
+                        if (!sameTree(CompiledTree.compile(root, data), model.compiled)) differentTrees.increment();
+                    }
+                    buildersLeft.decrementAndGet();
+                }));
+                int offset = t * inputs.size() / BUILD_THREADS;
+                threads.add(new Thread(() -> {
+                    long count = 0;
+                    for (int i = offset; buildersLeft.get() > 0 || count < inputs.size(); i = (i + 1) % inputs.size()) {
+                        Prediction result = model.predict(inputs.get(i));
+                        if (!result.label.equals(expected.get(i).label) || !result.path.equals(expected.get(i).path)) {
+                            wrong.increment();
+                        }
+                        count++;
+                    }
+                    predictions.add(count);
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            System.out.printf("🏗 %d trees built on %d threads while %d predictions ran (%.1f ms)\n",
+                    BUILD_THREADS * BUILDS_PER_THREAD, BUILD_THREADS, predictions.sum(), (System.nanoTime() - start) / 1e6);
+            boolean ok = differentTrees.sum() == 0 && wrong.sum() == 0;
+            System.out.println(ok
+                    ? "✅ Every concurrently built tree matched the reference, and so did every prediction"
+                    : "❌ " + differentTrees.sum() + " trees and " + wrong.sum() + " predictions differed from the reference");
+            return ok;
+        }
+
+        static boolean sameTree(CompiledTree a, CompiledTree b) {
+            return Arrays.equals(a.feature, b.feature) && Arrays.equals(a.label, b.label)
+                    && Arrays.equals(a.childBase, b.childBase) && Arrays.equals(a.childLimit, b.childLimit)
+                    && Arrays.equals(a.children, b.children) && Arrays.equals(a.edgeId, b.edgeId)
+                    && Arrays.equals(a.classes, b.classes);
+        }
+
+        // Random rows built from the model's attribute values (fixed seed, so every run checks the same rows)
+        static List<List<String>> sampleInputs(CompiledTree compiled) {
+            Random random = new Random(42);
+            List<List<String>> inputs = new ArrayList<>();
+            for (int r = 0; r < 10_000; r++) {
+                List<String> input = new ArrayList<>();
+                for (int f = 0; f < compiled.values.length; f++) {
+                    input.add(compiled.values[f][random.nextInt(compiled.values[f].length)]);
+                }
+                inputs.add(input);
+            }
+            return inputs;
+        }
+
+        static boolean run(Model model, int seconds) throws InterruptedException {
+            CompiledTree compiled = model.compiled;
+            List<List<String>> inputs = sampleInputs(compiled);
+            List<Prediction> expected = new ArrayList<>();
+            for (List<String> input : inputs) {
+                expected.add(model.predict(input));
+            }
+
+            int cores = Runtime.getRuntime().availableProcessors();
+            List<Integer> threadCounts = new ArrayList<>();
+            for (int threads = 1; threads < cores; threads *= 2) {
+                threadCounts.add(threads);
+            }
+            threadCounts.add(cores);
+
+            LongAdder wrong = new LongAdder();
+            measure(model, inputs, expected, 1, seconds, wrong); // Warm-up, so the JIT has compiled predict
+            System.out.printf("%8s %16s %10s %11s%n", "Threads", "predictions/s", "speedup", "efficiency");
+            double single = 0;
+            for (int threads : threadCounts) {
+                double rate = measure(model, inputs, expected, threads, seconds, wrong);
+                if (threads == 1) single = rate;
+                System.out.printf("%8d %16.0f %9.2fx %10.0f%%%n", threads, rate, rate / single,
+                        100 * rate / single / threads);
+            }
+            System.out.println(wrong.sum() == 0
+                    ? "✅ Every concurrent prediction matched the single-threaded answer and path"
+                    : "❌ " + wrong.sum() + " concurrent predictions differed from the single-threaded answer");
+            return wrong.sum() == 0;
+        }
+
+        // Predictions per second of all threads together; answers that differ from expected go to wrong
+        static double measure(Model model, List<List<String>> inputs, List<Prediction> expected, int threads,
+                              int seconds, LongAdder wrong) throws InterruptedException {
+            LongAdder done = new LongAdder();
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int offset = t * inputs.size() / threads;
+                Thread worker = new Thread(() -> {
+                    long count = 0;
+                    for (int i = offset; System.nanoTime() < deadline; i = (i + 1) % inputs.size()) {
+                        Prediction result = model.predict(inputs.get(i));
+                        if (!result.label.equals(expected.get(i).label) || !result.path.equals(expected.get(i).path)) {
+                            wrong.increment();
+                        }
+                        count++;
+                    }
+                    done.add(count);
+                });
+                worker.start();
+                workers.add(worker);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            return done.sum() / (double) seconds;
+        }
+    }
+
+    // Serves one model at a time and, with watch(), retrains it in the background whenever its source file
+    // changes. The live version is a single AtomicReference: a request reads it once and keeps that version
+    // until it is done, so a swap never waits for requests and requests never wait for a swap. Retired
+    // versions are only weakly reachable from here; once the last request using one finishes, the GC frees
+    // it and the reference queue reports how much was reclaimed
+    static class ModelRegistry {
+        static final class Version {
+            final int number;
+            final CompiledTree model;
+
+            Version(int number, CompiledTree model) {
+                this.number = number;
+                this.model = model;
+            }
+        }
+
+        // Weak handle on a retired model that remembers its size after the model itself is gone
+        static final class Retired extends WeakReference<CompiledTree> {
+            final int number;
+            final long bytes;
+
+            Retired(Version version, ReferenceQueue<CompiledTree> queue) {
+                super(version.model, queue);
+                number = version.number;
+                bytes = version.model.sizeInBytes();
+            }
+        }
+
+        final String source;
+        final CountKernel kernel;   // Used for every retraining, like for the first model
+        final AtomicReference<Version> live;
+        final ReferenceQueue<CompiledTree> collected = new ReferenceQueue<>();
+        final Set<Retired> retired = ConcurrentHashMap.newKeySet();   // Keeps the weak references themselves alive
+        final LatencyHistogram swapLatency = new LatencyHistogram();
+        final LongAdder reclaimedModels = new LongAdder();
+        final LongAdder reclaimedBytes = new LongAdder();
+        volatile long lastTrainNanos;
+        private ScheduledExecutorService watcher;
+        private long seenModified, seenLength;         // Watcher thread only: the file as of the last poll
+        private long trainedModified, trainedLength;   // and as of the last (re)training
+
+        ModelRegistry(String source, CountKernel kernel, CompiledTree model) {
+            this.source = source;
+            this.kernel = kernel;
+            live = new AtomicReference<>(new Version(1, model));
+        }
+
+        Version current() {
+            return live.get();
+        }
+
+        // Polls the source file every intervalMillis. A change is picked up once the file has stayed the
+        // same for a whole interval, so a file that is still being written is not trained on
+        void watch(long intervalMillis) {
+            File file = new File(source);
+            seenModified = trainedModified = file.lastModified();
+            seenLength = trainedLength = file.length();
+            watcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "model-watcher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            watcher.scheduleWithFixedDelay(this::poll, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+
+        void stop() {
+            if (watcher != null) watcher.shutdownNow();
+        }
+
+        void poll() {
+            drainCollected();
+            File file = new File(source);
+            long modified = file.lastModified();
+            long length = file.length();
+            if (modified != seenModified || length != seenLength) {
+                seenModified = modified;
+                seenLength = length;
+                return;
+            }
+            if (modified == trainedModified && length == trainedLength) return;
+            trainedModified = modified;
+            trainedLength = length;
+            try {
+                retrain();
+            } catch (IOException | RuntimeException e) {
+                System.out.println("⚠️ Retraining on " + source + " failed, still serving version "
+                        + current().number + ": " + e.getMessage());
+            }
+        }
+
+        // Only the watcher thread swaps, so the next number cannot race with another swap
+        Version retrain() throws IOException {
+            long start = System.nanoTime();
+            Version next = new Version(current().number + 1, loadOrTrain(source, kernel));
+            lastTrainNanos = System.nanoTime() - start;
+
+            long swapStart = System.nanoTime();
+            Version previous = live.getAndSet(next);
+            long swapNanos = System.nanoTime() - swapStart;
+            swapLatency.record(swapNanos);
+
+            Retired handle = new Retired(previous, collected);
+            retired.add(handle);
+            System.out.printf("🔄 Model version %d is live (%d nodes): trained in %.1f ms, swapped in %.2f µs; "
+                            + "version %d retired (%.1f KB)\n", next.number, next.model.nodeCount(),
+                    lastTrainNanos / 1e6, swapNanos / 1e3, previous.number, handle.bytes / 1024.0);
+            return next;
+        }
+
+        // Counts the retired models the GC has freed since the last call
+        void drainCollected() {
+            Reference<? extends CompiledTree> reference;
+            while ((reference = collected.poll()) != null) {
+                Retired handle = (Retired) reference;
+                retired.remove(handle);
+                reclaimedModels.increment();
+                reclaimedBytes.add(handle.bytes);
+                System.out.printf("♻️ Model version %d was reclaimed (%.1f KB)\n", handle.number, handle.bytes / 1024.0);
+            }
+        }
+
+        String statsJson() {
+            drainCollected();
+            Version version = current();
+            return String.format(Locale.ROOT, "\"model_version\":%d,\"model_nodes\":%d,\"swaps\":%d,"
+                            + "\"last_train_ms\":%.1f,\"swap_max_us\":%.2f,\"retired_alive\":%d,"
+                            + "\"retired_reclaimed\":%d,\"reclaimed_bytes\":%d",
+                    version.number, version.model.nodeCount(), swapLatency.count(), lastTrainNanos / 1e6,
+                    swapLatency.max() / 1e3, retired.size(), reclaimedModels.sum(), reclaimedBytes.sum());
         }
-        return baseEntropy - newEntropy;
     }
 
-    // Split dataset based on the values of a feature
-    static Map<String, List<String[]>> splitByFeature(List<String[]> subset, int feature) {
-        Map<String, List<String[]>> splits = new HashMap<>();
-        for (String[] row : subset) {
-            splits.computeIfAbsent(row[feature], k -> new ArrayList<>()).add(row);
+    // Local HTTP endpoint around one compiled model. CompiledTree.predict keeps no state between calls,
+    // so requests run concurrently without locking; each one gets its own thread (a virtual thread when
+    // the JDK has them, otherwise a thread of a fixed pool of platform threads).
+    //   POST /predict   {"outlook": "sunny", ...}  -> {"label": "no"}
+    //   POST /predict   [{...}, {...}]             -> [{"label": ...}, ...]
+    //   GET  /predict?outlook=sunny&...            -> {"label": "no"}
+    //   GET  /stats                                -> request count and p50/p99 latency
+    // Add explain=true to the query to get the chosen branches as "path"
+    static class PredictionServer {
+        static final int POOL_THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+        final ModelRegistry registry;
+        final HttpServer server;
+        final ExecutorService executor;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder requests = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LongAdder errors = new LongAdder();
+
+        PredictionServer(ModelRegistry registry, int port) throws IOException {
+            this.registry = registry;
+            server = HttpServer.create(new InetSocketAddress(port), 1024);
+            executor = newRequestExecutor();
+            server.setExecutor(executor);
+            server.createContext("/predict", this::handlePredict);
+            server.createContext("/stats", this::handleStats);
+            server.createContext("/metrics", this::handleMetrics);
+        }
+
+        void start() {
+            server.start();
+        }
+
+        void stop() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+
+        int port() {
+            return server.getAddress().getPort();
         }
-        return splits;
-    }
 
-    // Count the frequency of each label in the dataset
-    static Map<String, Integer> countLabels(List<String[]> subset) {
-        Map<String, Integer> count = new HashMap<>();
-        for (String[] row : subset) {
-            String label = row[row.length - 1]; // Output column (last)
-            count.put(label, count.getOrDefault(label, 0) + 1);
+        // Executors.newVirtualThreadPerTaskExecutor() exists from Java 21 on; it is looked up by reflection
+        // so the program still compiles and runs on older JDKs. Without it, requests share a fixed pool of
+        // platform threads, so a burst of requests waits in the queue instead of starting a thread each
+        static ExecutorService newRequestExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                return Executors.newFixedThreadPool(POOL_THREADS);
+            }
         }
-        return count;
-    }
 
-    // Return the most common label (majority class)
-    static String majorityLabel(Map<String, Integer> labelCount) {
-        return labelCount.entrySet().stream().max(Map.Entry.comparingByValue()).get().getKey();
-    }
+        static boolean virtualThreads() {
+            try {
+                Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return true;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
 
-    // Improved tree printer with clean branching visuals
-    static void printTree2(Node node, String prefix, boolean isLast) {
-        if (node.isLeaf()) {
-            System.out.println(prefix + (isLast ? "└── " : "├── ") + "--> " + node.label);
-            return;
+        void handlePredict(HttpExchange exchange) throws IOException {
+            long start = System.nanoTime();
+            Map<String, String> query = queryParameters(exchange.getRequestURI().getRawQuery());
+            boolean explain = "true".equalsIgnoreCase(query.remove("explain"));
+            // Read once: every row of the request uses this version even if a newer one goes live meanwhile
+            ModelRegistry.Version version = registry.current();
+            int status = 200;
+            String response;
+            try {
+                if (exchange.getRequestMethod().equals("GET")) {
+                    response = predictJson(version, new HashMap<>(query), explain);
+                    rows.increment();
+                } else {
+                    Object body = JsonReader.parse(new String(exchange.getRequestBody().readAllBytes(),
+                            StandardCharsets.UTF_8));
+                    if (body instanceof List) {
+                        StringBuilder sb = new StringBuilder("[");
+                        List<?> batch = (List<?>) body;
+                        for (int i = 0; i < batch.size(); i++) {
+                            if (i > 0) sb.append(',');
+                            sb.append(predictJson(version, asRow(batch.get(i)), explain));
+                        }
+                        response = sb.append(']').toString();
+                        rows.add(batch.size());
+                    } else {
+                        response = predictJson(version, asRow(body), explain);
+                        rows.increment();
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                status = 400;
+                response = "{\"error\":" + jsonString(e.getMessage()) + "}";
+                errors.increment();
+            }
+            send(exchange, status, response);
+            requests.increment();
+            latency.record(System.nanoTime() - start);
         }
 
-        if (!prefix.isEmpty()) {
-            System.out.println(prefix + (isLast ? "└── " : "├── ") + node.attribute);
-        } else {
-            // Root node
-            System.out.println(node.attribute);
+        void handleStats(HttpExchange exchange) throws IOException {
+            send(exchange, 200, String.format(Locale.ROOT,
+                    "{\"requests\":%d,\"rows\":%d,\"errors\":%d,\"p50_ms\":%.3f,\"p99_ms\":%.3f,\"max_ms\":%.3f,%s}",
+                    requests.sum(), rows.sum(), errors.sum(), latency.percentile(50) / 1e6,
+                    latency.percentile(99) / 1e6, latency.max() / 1e6, registry.statsJson()));
         }
 
-        List<Map.Entry<String, Node>> entries = new ArrayList<>(node.children.entrySet());
-        for (int i = 0; i < entries.size(); i++) {
-            String value = entries.get(i).getKey();
-            Node child = entries.get(i).getValue();
-            boolean childIsLast = (i == entries.size() - 1);
+        // One row keyed by attribute name; attributes that are not given count as empty values
+        static String predictJson(ModelRegistry.Version version, Map<String, Object> row, boolean explain) {
+            CompiledTree model = version.model;
+            List<String> input = new ArrayList<>();
+            for (int f = 0; f < model.values.length; f++) {
+                Object value = row.get(model.headers.get(f));
+                input.add(value == null ? "" : value.toString());
+            }
+            List<String> path = explain ? new ArrayList<>() : null;
+            String label = model.predict(input, path);
 
-            if (child.isLeaf()) {
-                System.out.println(prefix + (isLast ? "    " : "│   ") + (childIsLast ? "└── " : "├── ") + value + " --> " + child.label);
+            StringBuilder sb = new StringBuilder("{\"label\":").append(jsonString(label))
+                    .append(",\"version\":").append(version.number);
+            if (explain) {
+                sb.append(",\"path\":[");
+                for (int i = 0; i < path.size(); i++) {
+                    if (i > 0) sb.append(',');
+                    sb.append(jsonString(path.get(i)));
+                }
+                sb.append(']');
+            }
+            return sb.append('}').toString();
+        }
+
+        @SuppressWarnings("unchecked")
+        static Map<String, Object> asRow(Object value) {
+            if (!(value instanceof Map)) {
+                throw new IllegalArgumentException("Expected a JSON object of attribute values");
+            }
+            return (Map<String, Object>) value;
+        }
+
+        static Map<String, String> queryParameters(String rawQuery) {
+            Map<String, String> parameters = new HashMap<>();
+            if (rawQuery == null) return parameters;
+            for (String pair : rawQuery.split("&")) {
+                int eq = pair.indexOf('=');
+                String key = eq < 0 ? pair : pair.substring(0, eq);
+                String value = eq < 0 ? "" : pair.substring(eq + 1);
+                parameters.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+            }
+            return parameters;
+        }
+
+        // The process-wide Metrics snapshot: Prometheus text, or JSON with ?format=json
+        void handleMetrics(HttpExchange exchange) throws IOException {
+            if (!Metrics.enabled) {
+                send(exchange, 404, "{\"error\":\"metrics are off, start the server with --metrics\"}");
+                return;
+            }
+            if ("json".equals(queryParameters(exchange.getRequestURI().getRawQuery()).get("format"))) {
+                send(exchange, 200, Metrics.json());
             } else {
-                System.out.println(prefix + (isLast ? "    " : "│   ") + (childIsLast ? "└── " : "├── ") + value);
-                printTree2(child, prefix + (isLast ? "    " : "│   ") + (childIsLast ? "    " : "│   "), true);
+                send(exchange, 200, Metrics.prometheus(), "text/plain; version=0.0.4; charset=utf-8");
+            }
+        }
+
+        static void send(HttpExchange exchange, int status, String body) throws IOException {
+            send(exchange, status, body, "application/json; charset=utf-8");
+        }
+
+        static void send(HttpExchange exchange, int status, String body, String contentType) throws IOException {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
             }
         }
     }
 
-    // Predict the answer
-    static String predict(Node node, List<String> input) {
-        while (!node.isLeaf()) {
-            // Find which attribute this node tests
-            String attribute = node.attribute;
+    // Lock-free latency histogram: 16 buckets per power of two of nanoseconds (about 6% resolution),
+    // so recording is one atomic increment and percentiles need no stored samples
+    static class LatencyHistogram {
+        static final int SUB_BUCKETS = 16;
 
-            // Find the index of this attribute in the input
-            int index = headers.indexOf(attribute);
-            if (index == -1) return "Unknown"; // Attribute not found
+        final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+        final AtomicLong max = new AtomicLong();
+        final LongAdder sum = new LongAdder();
 
-            // Normalize input value
-            String value = input.get(index).trim().toLowerCase();
+        void record(long nanos) {
+            counts.incrementAndGet(bucket(Math.max(nanos, 0)));
+            max.accumulateAndGet(nanos, Math::max);
+            sum.add(nanos);
+        }
 
-            // Now search for a matching child key manually
-            boolean found = false;
-            for (String key : node.children.keySet()) {
-                if (key.trim().toLowerCase().equals(value)) {
-                    // Add attribute=value to chosen path
-                    chosenPath.add(attribute + "=" + key);
-                    node = node.children.get(key);
-                    found = true;
-                    break;
+        static int bucket(long nanos) {
+            if (nanos < SUB_BUCKETS) return (int) nanos;
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);   // nanos is in [2^exponent, 2^(exponent+1))
+            int sub = (int) (nanos >>> (exponent - 4)) & (SUB_BUCKETS - 1);
+            return (exponent - 3) * SUB_BUCKETS + sub;
+        }
+
+        // Upper edge of a bucket, so percentiles never understate
+        static long bucketLimit(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int exponent = bucket / SUB_BUCKETS + 3;
+            int sub = bucket % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 4)) - 1;
+        }
+
+        long count() {
+            long total = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                total += counts.get(i);
+            }
+            return total;
+        }
+
+        long percentile(double percent) {
+            long total = count();
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(total * percent / 100.0);
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) return Math.min(bucketLimit(i), max.get());
+            }
+            return max.get();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        long sum() {
+            return sum.sum();
+        }
+    }
+
+    // Counters, timers and histograms for loading, tree building, gain scoring and prediction. Nothing is
+    // collected unless --metrics is given: every probe first checks the enabled flag, so a disabled probe
+    // costs one field read. Snapshots come out as JSON or in the Prometheus text format
+    static class Metrics {
+        static boolean enabled;
+        static boolean paused;   // Set by unrecorded: no counters and no Flight Recorder events
+
+        static final LongAdder filesLoaded = new LongAdder();
+        static final LongAdder rowsLoaded = new LongAdder();
+        static final LongAdder bytesLoaded = new LongAdder();
+        static final LatencyHistogram loadTime = new LatencyHistogram();
+        static final LatencyHistogram buildTime = new LatencyHistogram();   // Whole trees built by buildTree
+        static final LongAdder nodesBuilt = new LongAdder();
+        static final LongAdder leavesBuilt = new LongAdder();
+        static final Map<Integer, LatencyHistogram> nodeTimeByDepth = new ConcurrentHashMap<>(); // Without subtrees
+        static final LongAdder gainEvaluations = new LongAdder();
+        static final LongAdder gainRows = new LongAdder();
+        static final LongAdder predictions = new LongAdder();
+        static final LongAdder unknownPredictions = new LongAdder();
+        static final LatencyHistogram predictLatency = new LatencyHistogram(); // Single-row predictions
+
+        // --metrics turns collection on; --metrics=json:<path> or --metrics=prometheus:<path> also writes
+        // a snapshot when the program ends. --jfr=<file> records the Flight Recorder events to a file
+        static void configure(String[] args) {
+            String target = option(args, "--metrics");
+            if (target != null || Arrays.asList(args).contains("--metrics")) {
+                enabled = true;
+            }
+            if (target != null) {
+                int colon = target.indexOf(':');
+                String format = colon < 0 ? "" : target.substring(0, colon);
+                if (!format.equals("json") && !format.equals("prometheus")) {
+                    throw new IllegalArgumentException("Unknown metrics target: " + target
+                            + " (expected json:<path> or prometheus:<path>)");
                 }
+                String path = target.substring(colon + 1);
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try (PrintStream out = new PrintStream(new FileOutputStream(path), true, "UTF-8")) {
+                        out.print(format.equals("json") ? json() : prometheus());
+                    } catch (IOException e) {
+                        System.err.println("❌ Could not write metrics to " + path + ": " + e.getMessage());
+                    }
+                }));
             }
 
-            if (!found) return "Unknown";
+            String jfr = option(args, "--jfr");
+            if (jfr != null) {
+                Recording recording = new Recording();
+                recording.enable(NodeBuildEvent.class);
+                recording.enable(PredictionBatchEvent.class);
+                recording.setDumpOnExit(true);
+                try {
+                    recording.setDestination(Paths.get(jfr));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                recording.start();
+            }
         }
 
-        // Return the final label at the leaf node
-        return node.label;
+        static long start() {
+            return enabled ? System.nanoTime() : 0;
+        }
+
+        // Runs work that is only done for comparison (the same thread, nothing else running) without
+        // counting it or recording events for it
+        static <T> T unrecorded(Supplier<T> work) {
+            boolean wasEnabled = enabled;
+            enabled = false;
+            paused = true;
+            try {
+                return work.get();
+            } finally {
+                enabled = wasEnabled;
+                paused = false;
+            }
+        }
+
+        static void loaded(LoadStats stats) {
+            if (!enabled) return;
+            filesLoaded.increment();
+            rowsLoaded.add(stats.rows);
+            bytesLoaded.add(stats.bytes);
+            loadTime.record(stats.nanos);
+        }
+
+        static void treeBuilt(long start) {
+            if (enabled) buildTime.record(System.nanoTime() - start);
+        }
+
+        // Loading an event class takes a few hundred ms, so events are only created once Flight Recorder is
+        // running (--jfr, -XX:StartFlightRecording or jcmd JFR.start); null otherwise
+        static NodeBuildEvent nodeEvent() {
+            if (paused || !FlightRecorder.isInitialized()) return null;
+            NodeBuildEvent event = new NodeBuildEvent();
+            event.begin();
+            return event;
+        }
+
+        static PredictionBatchEvent batchEvent() {
+            if (!FlightRecorder.isInitialized()) return null;
+            PredictionBatchEvent event = new PredictionBatchEvent();
+            event.begin();
+            return event;
+        }
+
+        // The node's own work is done (a leaf, or a split chosen and applied); attribute is null for a leaf
+        static void nodeBuilt(NodeBuildEvent event, long start, int depth, int rows, String attribute, double gain) {
+            if (event != null && event.shouldCommit()) {
+                event.depth = depth;
+                event.rows = rows;
+                event.attribute = attribute;
+                event.gain = gain;
+                event.commit();
+            }
+            if (!enabled) return;
+            nodesBuilt.increment();
+            if (attribute == null) leavesBuilt.increment();
+            nodeTimeByDepth.computeIfAbsent(depth, d -> new LatencyHistogram()).record(System.nanoTime() - start);
+        }
+
+        static void gainEvaluated(int rows) {
+            if (!enabled) return;
+            gainEvaluations.increment();
+            gainRows.add(rows);
+        }
+
+        static void predicted(long start, String label) {
+            if (!enabled) return;
+            predictLatency.record(System.nanoTime() - start);
+            predictions.increment();
+            if (label.equals("Unknown")) unknownPredictions.increment();
+        }
+
+        static void batchPredicted(PredictionBatchEvent event, int[] predictions) {
+            boolean record = event != null && event.shouldCommit();
+            if (!record && !enabled) return;
+            int unknown = 0;
+            for (int prediction : predictions) {
+                if (prediction < 0) unknown++;
+            }
+            if (record) {
+                event.rows = predictions.length;
+                event.unknown = unknown;
+                event.commit();
+            }
+            if (!enabled) return;
+            Metrics.predictions.add(predictions.length);
+            unknownPredictions.add(unknown);
+        }
+
+        static double nodesPerSecond() {
+            long nanos = buildTime.sum();
+            return nanos == 0 ? 0 : nodesBuilt.sum() / (nanos / 1e9);
+        }
+
+        static String json() {
+            StringBuilder sb = new StringBuilder("{");
+            sb.append("\"enabled\":").append(enabled);
+            sb.append(",\"files_loaded\":").append(filesLoaded.sum());
+            sb.append(",\"rows_loaded\":").append(rowsLoaded.sum());
+            sb.append(",\"bytes_loaded\":").append(bytesLoaded.sum());
+            sb.append(",\"load_time\":").append(jsonTimer(loadTime));
+            sb.append(",\"build_time\":").append(jsonTimer(buildTime));
+            sb.append(",\"nodes_built\":").append(nodesBuilt.sum());
+            sb.append(",\"leaves_built\":").append(leavesBuilt.sum());
+            sb.append(String.format(Locale.ROOT, ",\"nodes_per_second\":%.1f", nodesPerSecond()));
+            sb.append(",\"node_time_by_depth\":{");
+            boolean first = true;
+            for (Map.Entry<Integer, LatencyHistogram> entry : new TreeMap<>(nodeTimeByDepth).entrySet()) {
+                if (!first) sb.append(',');
+                first = false;
+                sb.append('"').append(entry.getKey()).append("\":").append(jsonTimer(entry.getValue()));
+            }
+            sb.append('}');
+            sb.append(",\"gain_evaluations\":").append(gainEvaluations.sum());
+            sb.append(",\"gain_rows\":").append(gainRows.sum());
+            sb.append(",\"predictions\":").append(predictions.sum());
+            sb.append(",\"unknown_predictions\":").append(unknownPredictions.sum());
+            sb.append(",\"predict_latency\":").append(jsonTimer(predictLatency));
+            return sb.append("}\n").toString();
+        }
+
+        static String jsonTimer(LatencyHistogram timer) {
+            return String.format(Locale.ROOT, "{\"count\":%d,\"sum_ms\":%.3f,\"p50_ms\":%.6f,\"p99_ms\":%.6f,\"max_ms\":%.6f}",
+                    timer.count(), timer.sum() / 1e6, timer.percentile(50) / 1e6, timer.percentile(99) / 1e6,
+                    timer.max() / 1e6);
+        }
+
+        static String prometheus() {
+            StringBuilder sb = new StringBuilder();
+            counter(sb, "dt_files_loaded_total", "Data files loaded", filesLoaded.sum());
+            counter(sb, "dt_rows_loaded_total", "Rows loaded from data files", rowsLoaded.sum());
+            counter(sb, "dt_bytes_loaded_total", "Bytes read from data files", bytesLoaded.sum());
+            summary(sb, "dt_load_seconds", "Time to load one data file", Map.of("", loadTime));
+            summary(sb, "dt_build_seconds", "Time to build one tree", Map.of("", buildTime));
+            counter(sb, "dt_nodes_built_total", "Tree nodes built", nodesBuilt.sum());
+            counter(sb, "dt_leaves_built_total", "Leaves built", leavesBuilt.sum());
+            sb.append("# HELP dt_build_nodes_per_second Nodes built per second of tree building\n");
+            sb.append("# TYPE dt_build_nodes_per_second gauge\n");
+            sb.append(String.format(Locale.ROOT, "dt_build_nodes_per_second %.1f\n", nodesPerSecond()));
+            Map<String, LatencyHistogram> byDepth = new LinkedHashMap<>();
+            new TreeMap<>(nodeTimeByDepth).forEach((depth, timer) -> byDepth.put("depth=\"" + depth + "\"", timer));
+            summary(sb, "dt_node_build_seconds", "Own work of one node (subtrees excluded) by depth", byDepth);
+            counter(sb, "dt_gain_evaluations_total", "Information gain evaluations", gainEvaluations.sum());
+            counter(sb, "dt_gain_rows_total", "Rows counted by gain evaluations", gainRows.sum());
+            counter(sb, "dt_predictions_total", "Rows predicted", predictions.sum());
+            counter(sb, "dt_unknown_predictions_total", "Rows predicted as Unknown", unknownPredictions.sum());
+            summary(sb, "dt_predict_seconds", "Latency of one single-row prediction", Map.of("", predictLatency));
+            return sb.toString();
+        }
+
+        static void counter(StringBuilder sb, String name, String help, long value) {
+            sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            sb.append("# TYPE ").append(name).append(" counter\n");
+            sb.append(name).append(' ').append(value).append('\n');
+        }
+
+        // One summary family; the keys are label sets ("" for none)
+        static void summary(StringBuilder sb, String name, String help, Map<String, LatencyHistogram> timers) {
+            sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            sb.append("# TYPE ").append(name).append(" summary\n");
+            timers.forEach((labels, timer) -> {
+                String prefix = labels.isEmpty() ? "" : labels + ",";
+                String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+                for (double quantile : new double[]{0.5, 0.9, 0.99}) {
+                    sb.append(String.format(Locale.ROOT, "%s{%squantile=\"%s\"} %.9f\n", name, prefix, quantile,
+                            timer.percentile(quantile * 100) / 1e9));
+                }
+                sb.append(String.format(Locale.ROOT, "%s_sum%s %.9f\n", name, suffix, timer.sum() / 1e9));
+                sb.append(name).append("_count").append(suffix).append(' ').append(timer.count()).append('\n');
+            });
+        }
     }
 
-    // Graph functions:
-    //######################################################################################################################################
-    // Show image 1
-    // Exports the decision tree to a Graphviz DOT file for visualization
-    static void exportToGraphviz(Node node, String filePath) throws IOException {
-        BufferedWriter writer = new BufferedWriter(new FileWriter(filePath));
-        writer.write("digraph Tree {\n");
-        writer.write("rankdir=TB;\n"); // Top-down layout
-        writer.write("node [shape=box, style=filled, color=black, fontname=\"Segoe UI Variable Text Semibold\", fontsize=16];\n");
-        generateDotContent(node, writer, new int[]{0}, "N0");
-        writer.write("}\n");
-        writer.close();
+    // Flight Recorder events, recorded only while a recording has them enabled (--jfr=<file>, or
+    // -XX:StartFlightRecording and the like). Read them with JDK Mission Control or `jfr print`
+    @Name("decisiontree.NodeBuild")
+    @Label("Node Build")
+    @Category("Decision Tree")
+    @Description("Choosing and applying the split of one node of buildTree (its subtrees excluded)")
+    static class NodeBuildEvent extends Event {
+        @Label("Depth")
+        int depth;
+        @Label("Rows")
+        int rows;
+        @Label("Split Attribute")
+        @Description("Attribute the node splits on, null for a leaf")
+        String attribute;
+        @Label("Gain")
+        double gain;
     }
 
-    // Recursively generates the DOT content by traversing the tree nodes and writing node/edge definitions
-    //used to generate the full tree without highlighting
-    static void generateDotContent(Node node, BufferedWriter writer, int[] id, String name) throws IOException {
-        String label = node.isLeaf() ? node.label : node.attribute;
-        String fill = node.isLeaf() ? "#ccffcc" : "#ffe0b3"; // pale green / pale orange
-        writer.write(name + " [label=\"" + label + "\", fillcolor=\"" + fill + "\"];\n");
+    @Name("decisiontree.PredictionBatch")
+    @Label("Prediction Batch")
+    @Category("Decision Tree")
+    @Description("Scoring one chunk of rows with predictBatch")
+    static class PredictionBatchEvent extends Event {
+        @Label("Rows")
+        int rows;
+        @Label("Unknown Rows")
+        int unknown;
+    }
 
-        for (Map.Entry<String, Node> entry : node.children.entrySet()) {
-            id[0]++;
-            String childName = "N" + id[0];
-            writer.write(name + " -> " + childName + " [label=\"" + entry.getKey() + "\", fontsize=14];\n");
-            generateDotContent(entry.getValue(), writer, id, childName);
+    // Just enough JSON for prediction requests: objects, arrays, strings, numbers, true/false/null.
+    // Numbers are kept as their text, since attribute values are compared as text
+    static class JsonReader {
+        final String text;
+        int pos;
+
+        JsonReader(String text) {
+            this.text = text;
         }
-    }
 
-    // Uses the Graphviz 'dot' tool to convert a DOT file into a high-resolution PNG image
-    static void generatePNGFromDot(String dotFile, String pngFile) throws IOException, InterruptedException {
-        //ProcessBuilder pb = new ProcessBuilder("dot", "-Tpng", dotFile, "-o", pngFile);
-        ProcessBuilder pb = new ProcessBuilder("dot", "-Tpng", "-Gdpi=300", dotFile, "-o", pngFile);
+        static Object parse(String text) {
+            JsonReader reader = new JsonReader(text);
+            Object value = reader.value();
+            reader.skipSpace();
+            if (reader.pos != text.length()) throw reader.error("Unexpected text after the JSON value");
+            return value;
+        }
 
-        Process process = pb.start();
-        int exitCode = process.waitFor();
-        if (exitCode != 0) {
-            throw new RuntimeException("Graphviz conversion failed. Check if 'dot' is installed and in your PATH.");
+        Object value() {
+            skipSpace();
+            if (pos >= text.length()) throw error("Unexpected end of JSON");
+            char c = text.charAt(pos);
+            if (c == '{') return object();
+            if (c == '[') return array();
+            if (c == '"') return string();
+            if (text.startsWith("true", pos)) { pos += 4; return "true"; }
+            if (text.startsWith("false", pos)) { pos += 5; return "false"; }
+            if (text.startsWith("null", pos)) { pos += 4; return null; }
+            int start = pos;
+            while (pos < text.length() && "+-.0123456789eE".indexOf(text.charAt(pos)) >= 0) pos++;
+            if (start == pos) throw error("Unexpected character '" + c + "'");
+            return text.substring(start, pos);
         }
-    }
 
-    // Showing And Opening Image
-    static void openImageWithDefaultViewer(String imagePath) throws IOException {
-        File imageFile = new File(imagePath);
-        if (!Desktop.isDesktopSupported()) {
-            System.err.println("Desktop not supported. Cannot open image automatically.");
-            return;
+        Map<String, Object> object() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            pos++;
+            skipSpace();
+            if (peek() == '}') { pos++; return result; }
+            while (true) {
+                skipSpace();
+                if (peek() != '"') throw error("Expected an attribute name");
+                String key = string();
+                skipSpace();
+                expect(':');
+                result.put(key, value());
+                skipSpace();
+                if (peek() == ',') { pos++; continue; }
+                expect('}');
+                return result;
+            }
         }
 
-        Desktop desktop = Desktop.getDesktop();
-        if (imageFile.exists()) {
-            desktop.open(imageFile); // Open with system's default image viewer
-        } else {
-            System.err.println("Image file does not exist: " + imagePath);
+        List<Object> array() {
+            List<Object> result = new ArrayList<>();
+            pos++;
+            skipSpace();
+            if (peek() == ']') { pos++; return result; }
+            while (true) {
+                result.add(value());
+                skipSpace();
+                if (peek() == ',') { pos++; continue; }
+                expect(']');
+                return result;
+            }
         }
-    }
 
-    //######################################################################################################################################
-    // Show image 2 after running and getting input
-    static void exportToGraphviz2(Node root, String filePath, List<String> selections) throws IOException {
-        BufferedWriter writer = new BufferedWriter(new FileWriter(filePath));
-        writer.write("digraph Tree {\n");
-        writer.write("rankdir=TB;\n");
-        writer.write("bgcolor=white;\n");
-        writer.write("node [shape=box, style=filled, color=black, fillcolor=white, fontname=\"Segoe UI\", fontsize=16];\n");
+        String string() {
+            StringBuilder sb = new StringBuilder();
+            pos++;
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == '"') return sb.toString();
+                if (c != '\\') { sb.append(c); continue; }
+                if (pos >= text.length()) break;
+                char escape = text.charAt(pos++);
+                switch (escape) {
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        if (pos + 4 > text.length()) throw error("Bad \\u escape");
+                        sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default: sb.append(escape);
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        char peek() {
+            return pos < text.length() ? text.charAt(pos) : '\0';
+        }
 
-        Map<Node, String> nodeIds = new HashMap<>();
-        int[] counter = new int[]{0};
-        assignNodeIds(root, "N0", nodeIds, counter);
+        void expect(char c) {
+            if (peek() != c) throw error("Expected '" + c + "'");
+            pos++;
+        }
 
-        Set<String> visitedNodes = new HashSet<>();
-        Set<String> visitedEdges = new HashSet<>();
-        followSelectedPath(root, selections, nodeIds, visitedNodes, visitedEdges);
+        void skipSpace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+        }
 
-        generateDotContent(root, writer, nodeIds, visitedNodes, visitedEdges);
-        writer.write("}\n");
-        writer.close();
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos);
+        }
     }
 
-    // Assign unique IDs to each node
-    static void assignNodeIds(Node node, String id, Map<Node, String> nodeIds, int[] counter) {
-        nodeIds.put(node, id);
-        for (Map.Entry<String, Node> entry : node.children.entrySet()) {
-            counter[0]++;
-            assignNodeIds(entry.getValue(), "N" + counter[0], nodeIds, counter);
+    // Drives a PredictionServer over real HTTP connections: each client thread posts random rows (built
+    // from the model's attribute values) and checks every answer against CompiledTree.predict. Answers from
+    // a model version swapped in after the start (with --watch) are counted but not checked
+    static class LoadGenerator {
+        static void run(PredictionServer server, int clients, int seconds, int batch)
+                throws IOException, InterruptedException {
+            ModelRegistry.Version version = server.registry.current();
+            CompiledTree model = version.model;
+            URL url = new URL("http://localhost:" + server.port() + "/predict");
+            LatencyHistogram latency = new LatencyHistogram();
+            LongAdder sent = new LongAdder();
+            LongAdder mismatches = new LongAdder();
+            LongAdder newer = new LongAdder();
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < clients; t++) {
+                long seed = t;
+                Thread thread = new Thread(() -> {
+                    Random random = new Random(seed);
+                    while (System.nanoTime() < deadline) {
+                        List<List<String>> inputs = new ArrayList<>();
+                        StringBuilder body = new StringBuilder(batch > 1 ? "[" : "");
+                        for (int r = 0; r < batch; r++) {
+                            List<String> input = new ArrayList<>();
+                            body.append(r > 0 ? ",{" : "{");
+                            for (int f = 0; f < model.values.length; f++) {
+                                String value = model.values[f][random.nextInt(model.values[f].length)];
+                                input.add(value);
+                                if (f > 0) body.append(',');
+                                body.append(jsonString(model.headers.get(f))).append(':').append(jsonString(value));
+                            }
+                            body.append('}');
+                            inputs.add(input);
+                        }
+                        if (batch > 1) body.append(']');
+
+                        // HttpURLConnection keeps the connection alive between requests of a thread
+                        long start = System.nanoTime();
+                        String response;
+                        try {
+                            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                            connection.setRequestMethod("POST");
+                            connection.setDoOutput(true);
+                            try (OutputStream out = connection.getOutputStream()) {
+                                out.write(body.toString().getBytes(StandardCharsets.UTF_8));
+                            }
+                            try (InputStream in = connection.getInputStream()) {
+                                response = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                            }
+                        } catch (IOException e) {
+                            mismatches.increment();
+                            continue;
+                        }
+                        latency.record(System.nanoTime() - start);
+                        sent.increment();
+
+                        Object parsed = JsonReader.parse(response);
+                        List<?> results = batch > 1 ? (List<?>) parsed : List.of(parsed);
+                        for (int r = 0; r < batch; r++) {
+                            Map<String, Object> result = PredictionServer.asRow(results.get(r));
+                            Object label = result.get("label");
+                            if (!String.valueOf(version.number).equals(result.get("version"))) {
+                                newer.increment();
+                            } else if (!model.predict(inputs.get(r), null).equals(label)) mismatches.increment();
+                        }
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            long requests = sent.sum();
+            System.out.printf("🚀 %d clients, %d rows per request: %d requests in %d s = %.0f requests/s (%.0f rows/s)\n",
+                    clients, batch, requests, seconds, requests / (double) seconds, requests * batch / (double) seconds);
+            System.out.printf("⏱ Client latency p50 %.3f ms, p99 %.3f ms; server p50 %.3f ms, p99 %.3f ms\n",
+                    latency.percentile(50) / 1e6, latency.percentile(99) / 1e6,
+                    server.latency.percentile(50) / 1e6, server.latency.percentile(99) / 1e6);
+            System.out.println(mismatches.sum() == 0
+                    ? "✅ Every answer matched CompiledTree.predict"
+                    : "❌ " + mismatches.sum() + " answers were wrong or failed");
+            if (newer.sum() > 0) {
+                System.out.println("🔄 " + newer.sum() + " answers came from a model version newer than " + version.number);
+            }
         }
     }
 
-    // Follow path from selections and mark nodes and edges to highlight
-    static void followSelectedPath(Node node, List<String> selections, Map<Node, String> nodeIds,
-                                   Set<String> visitedNodes, Set<String> visitedEdges) {
-        Node current = node;
-        visitedNodes.add(nodeIds.get(current));
+    // One parsed chunk: local ids per column (the class column last) and the local dictionaries
+    static class Chunk {
+        final int[][] codes;
+        final ByteDictionary[] dictionaries;
+        int rows;
 
-        for (String sel : selections) {
-            String[] parts = sel.split("=", 2); // split into at most 2 parts
-            if (parts.length < 2) continue;     // skip if not proper key=value format
+        Chunk(byte[] text, byte separator, int featureCount) {
+            this(text, separator, featureCount, true);
+        }
 
-            String attr = parts[0];
-            String value = parts[1];
+        // withLabel = false parses plain feature rows (cell i goes to column i, nothing is taken as a label)
+        Chunk(byte[] text, byte separator, int featureCount, boolean withLabel) {
+            int width = withLabel ? featureCount + 1 : featureCount;
+            codes = new int[width][1024];
+            dictionaries = new ByteDictionary[width];
+            for (int c = 0; c < width; c++) {
+                dictionaries[c] = new ByteDictionary();
+            }
 
-            if (!current.attribute.equals(attr)) {
-                continue;  // skip if not matching attribute yet
+            int[] fieldStart = new int[featureCount + 2];
+            int[] fieldEnd = new int[featureCount + 2];
+            int lineStart = 0;
+            while (lineStart < text.length) {
+                int lineEnd = lineStart;
+                while (lineEnd < text.length && text[lineEnd] != '\n') lineEnd++;
+                int next = lineEnd + 1;
+                if (lineEnd > lineStart && text[lineEnd - 1] == '\r') lineEnd--;
+
+                // Split on the delimiter the way String.split does (trailing empty cells are dropped)
+                int fields = 0;
+                int cellStart = lineStart;
+                for (int i = lineStart; i <= lineEnd; i++) {
+                    if (i == lineEnd || text[i] == separator) {
+                        if (fields == fieldStart.length) {
+                            fieldStart = Arrays.copyOf(fieldStart, fields * 2);
+                            fieldEnd = Arrays.copyOf(fieldEnd, fields * 2);
+                        }
+                        fieldStart[fields] = cellStart;
+                        fieldEnd[fields++] = i;
+                        cellStart = i + 1;
+                    }
+                }
+                while (fields > 0 && fieldStart[fields - 1] == fieldEnd[fields - 1]) fields--;
+
+                if (fields > 0) { // Blank lines are skipped
+                    if (rows == codes[0].length) {
+                        for (int c = 0; c < width; c++) {
+                            codes[c] = Arrays.copyOf(codes[c], rows * 2);
+                        }
+                    }
+                    // Feature i is cell i, the label is the last cell
+                    for (int c = 0; c < featureCount; c++) {
+                        codes[c][rows] = c < fields
+                                ? dictionaries[c].encode(text, fieldStart[c], fieldEnd[c])
+                                : dictionaries[c].encode(text, 0, 0);
+                    }
+                    if (withLabel) {
+                        codes[featureCount][rows] = dictionaries[featureCount].encode(text, fieldStart[fields - 1], fieldEnd[fields - 1]);
+                    }
+                    rows++;
+                }
+                lineStart = next;
             }
+        }
+    }
 
-            Node child = current.children.get(value);
-            if (child == null) return;
+    // Open-addressing table from the bytes of a cell to a local id; a String is created only for new values
+    static class ByteDictionary {
+        int[] slots = new int[64];
+        int[] hashes = new int[32];
+        byte[][] keys = new byte[32][];
+        final List<String> values = new ArrayList<>();
 
-            String fromId = nodeIds.get(current);
-            String toId = nodeIds.get(child);
+        ByteDictionary() {
+            Arrays.fill(slots, -1);
+        }
 
-            visitedNodes.add(toId);
-            visitedEdges.add(fromId + "->" + toId);
+        int size() {
+            return values.size();
+        }
 
-            current = child;
+        int encode(byte[] text, int from, int to) {
+            int hash = 1;
+            for (int i = from; i < to; i++) {
+                hash = 31 * hash + text[i];
+            }
+            hash ^= hash >>> 16;
 
-            if (current.isLeaf()) break;
+            int mask = slots.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                int id = slots[slot];
+                if (id == -1) {
+                    return add(text, from, to, hash, slot);
+                }
+                if (hashes[id] == hash && Arrays.equals(keys[id], 0, keys[id].length, text, from, to)) {
+                    return id;
+                }
+            }
         }
 
+        private int add(byte[] text, int from, int to, int hash, int slot) {
+            int id = values.size();
+            if (id == keys.length) {
+                keys = Arrays.copyOf(keys, id * 2);
+                hashes = Arrays.copyOf(hashes, id * 2);
+            }
+            keys[id] = Arrays.copyOfRange(text, from, to);
+            hashes[id] = hash;
+            values.add(new String(text, from, to - from, StandardCharsets.UTF_8));
+            slots[slot] = id;
+
+            if (values.size() * 2 > slots.length) {
+                int[] grown = new int[slots.length * 2];
+                Arrays.fill(grown, -1);
+                int mask = grown.length - 1;
+                for (int i = 0; i < values.size(); i++) {
+                    int s = hashes[i] & mask;
+                    while (grown[s] != -1) s = (s + 1) & mask;
+                    grown[s] = i;
+                }
+                slots = grown;
+            }
+            return id;
+        }
     }
 
-    // Draw nodes and edges
-    //designed to highlight a specific decision path based on user input selections.
-    static void generateDotContent(Node node, BufferedWriter writer, Map<Node, String> nodeIds,
-                                   Set<String> visitedNodes, Set<String> visitedEdges) throws IOException {
-        String nodeId = nodeIds.get(node);
-        boolean isPath = visitedNodes.contains(nodeId);
-        String fill = isPath ? (node.isLeaf() ? "#ccffcc" : "#ffd699") : "white";
+    // Throughput of one load: rows and bytes read and the wall-clock time it took
+    static class LoadStats {
+        final int rows;
+        final long bytes;
+        final long nanos;
 
-        writer.write(String.format("%s [label=\"%s\", fillcolor=\"%s\"];\n", nodeId,
-                node.isLeaf() ? node.label : node.attribute, fill));
+        LoadStats(int rows, long bytes, long nanos) {
+            this.rows = rows;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
 
-        for (Map.Entry<String, Node> entry : node.children.entrySet()) {
-            Node child = entry.getValue();
-            String childId = nodeIds.get(child);
-            boolean edgeIsPath = visitedEdges.contains(nodeId + "->" + childId);
+        double rowsPerSecond() {
+            return rows / (nanos / 1e9);
+        }
 
-            writer.write(String.format("%s -> %s [label=\"%s\", color=\"%s\"];\n", nodeId, childId,
-                    entry.getKey(), edgeIsPath ? "orange" : "black"));
+        double megabytesPerSecond() {
+            return bytes / (1024.0 * 1024.0) / (nanos / 1e9);
+        }
 
-            generateDotContent(child, writer, nodeIds, visitedNodes, visitedEdges);
+        @Override
+        public String toString() {
+            return String.format("Loaded %d rows (%.2f MB) in %.1f ms: %.0f rows/s, %.1f MB/s",
+                    rows, bytes / (1024.0 * 1024.0), nanos / 1e6, rowsPerSecond(), megabytesPerSecond());
         }
     }
-    //######################################################################################################################################
 
     // Node class represents a decision node or a leaf node in the tree
     static class Node {
         String attribute;                        // The attribute used to split data at this node
         Map<String, Node> children = new LinkedHashMap<>(); // Child nodes for each possible attribute value
         String label;                            // If it's a leaf, this is the predicted class label
+        double threshold = Double.NaN;           // Numeric test: first child for values <= threshold, second for the rest
 
         Node(String attribute) {
             this.attribute = attribute;          // Constructor for decision node
@@ -580,5 +6299,9 @@ public class DecisionTree {
         boolean isLeaf() {
             return label != null;                // Returns true if it's a leaf node
         }
+
+        boolean isNumeric() {
+            return !Double.isNaN(threshold);     // Returns true if the node compares a number to its threshold
+        }
     }
 }